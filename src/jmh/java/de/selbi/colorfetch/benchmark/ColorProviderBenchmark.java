@@ -0,0 +1,80 @@
+package de.selbi.colorfetch.benchmark;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.selbi.colorfetch.ColorFetchProperties;
+import de.selbi.colorfetch.cache.ColorCacheKey;
+import de.selbi.colorfetch.data.ColorFetchResult;
+import de.selbi.colorfetch.image.ImageDecoder;
+import de.selbi.colorfetch.provider.AndroidPaletteColorProvider;
+import de.selbi.colorfetch.provider.ColorThiefColorProvider;
+
+/**
+ * Both strategies on already decoded images, and including the decoding of a
+ * JPEG (which is subsampled to the pixel budget of the strategy).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ColorProviderBenchmark {
+  @Param({"gradient", "shapes", "noise", "grayscale"})
+  public String image;
+
+  @Param({"64", "640", "3000"})
+  public int size;
+
+  private BufferedImage img;
+  private byte[] jpeg;
+  private ImageDecoder imageDecoder;
+  private ColorThiefColorProvider colorThiefColorProvider;
+  private AndroidPaletteColorProvider androidPaletteColorProvider;
+
+  @Setup
+  public void setup() throws IOException {
+    ColorFetchProperties colorFetchProperties = new ColorFetchProperties();
+    img = BenchmarkImages.create(image, size);
+    jpeg = BenchmarkImages.encodeJpeg(img);
+    imageDecoder = new ImageDecoder(colorFetchProperties);
+    colorThiefColorProvider = new ColorThiefColorProvider(colorFetchProperties);
+    androidPaletteColorProvider = new AndroidPaletteColorProvider(colorFetchProperties);
+  }
+
+  @Benchmark
+  public ColorFetchResult colorThief() throws IOException {
+    return colorThiefColorProvider.getColorFetchResultFromBufferedImage(img);
+  }
+
+  @Benchmark
+  public ColorFetchResult androidPalette() throws IOException {
+    return androidPaletteColorProvider.getColorFetchResultFromBufferedImage(img);
+  }
+
+  @Benchmark
+  public ColorFetchResult colorThiefWithDecode() throws IOException {
+    BufferedImage decoded = imageDecoder.decode(jpeg, ColorCacheKey.Strategy.COLOR_THIEF);
+    return colorThiefColorProvider.getColorFetchResultFromBufferedImage(decoded);
+  }
+
+  @Benchmark
+  public ColorFetchResult androidPaletteWithDecode() throws IOException {
+    BufferedImage decoded = imageDecoder.decode(jpeg, ColorCacheKey.Strategy.ANDROID_PALETTE);
+    return androidPaletteColorProvider.getColorFetchResultFromBufferedImage(decoded);
+  }
+}
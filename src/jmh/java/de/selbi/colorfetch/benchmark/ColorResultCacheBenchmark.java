@@ -0,0 +1,120 @@
+package de.selbi.colorfetch.benchmark;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sun.net.httpserver.HttpServer;
+
+import de.selbi.colorfetch.ColorFetchMetrics;
+import de.selbi.colorfetch.ColorFetchProperties;
+import de.selbi.colorfetch.cache.ColorCacheKey;
+import de.selbi.colorfetch.cache.ColorLookup;
+import de.selbi.colorfetch.cache.ColorResultCache;
+import de.selbi.colorfetch.cache.ContentHashIndex;
+import de.selbi.colorfetch.cache.DiskColorStore;
+import de.selbi.colorfetch.image.ImageDecoder;
+import de.selbi.colorfetch.image.ImageFetcher;
+import de.selbi.colorfetch.provider.AndroidPaletteColorProvider;
+import de.selbi.colorfetch.provider.ColorThiefColorProvider;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Throughput of cache hits with many threads at once. The images are served
+ * by a local HTTP server and loaded once during the setup, so the benchmark
+ * itself only ever hits the cache. A single key shows the contention on one
+ * entry, many keys the spread over the whole cache. Both the object cache and
+ * the packed cache are measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+public class ColorResultCacheBenchmark {
+  @Param({"1", "1000"})
+  public int keys;
+
+  @Param({"0.0", "0.5"})
+  public float normalize;
+
+  @Param({"false", "true"})
+  public boolean packed;
+
+  private HttpServer httpServer;
+  private ContentHashIndex contentHashIndex;
+  private ColorResultCache colorResultCache;
+  private ColorCacheKey[] colorCacheKeys;
+
+  @Setup
+  public void setup() throws IOException {
+    byte[] jpeg = BenchmarkImages.encodeJpeg(BenchmarkImages.create("shapes", 64));
+    httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    httpServer.createContext("/", exchange -> {
+      exchange.getResponseHeaders().set("Content-Type", "image/jpeg");
+      exchange.sendResponseHeaders(200, jpeg.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(jpeg);
+      }
+    });
+    httpServer.start();
+
+    ColorFetchProperties colorFetchProperties = new ColorFetchProperties();
+    colorFetchProperties.getCache().getPacked().setEnabled(packed);
+    ColorFetchMetrics colorFetchMetrics = new ColorFetchMetrics(new SimpleMeterRegistry());
+    contentHashIndex = new ContentHashIndex(colorFetchProperties, colorFetchMetrics);
+    colorResultCache = new ColorResultCache(new ColorThiefColorProvider(colorFetchProperties), new AndroidPaletteColorProvider(colorFetchProperties),
+      new ImageFetcher(colorFetchProperties), new ImageDecoder(colorFetchProperties), new DiskColorStore(colorFetchProperties),
+      contentHashIndex, colorFetchMetrics, colorFetchProperties);
+
+    colorCacheKeys = new ColorCacheKey[keys];
+    for (int i = 0; i < keys; i++) {
+      String url = "http://localhost:" + httpServer.getAddress().getPort() + "/" + i + ".jpg";
+      colorCacheKeys[i] = ColorCacheKey.of(url, ColorCacheKey.Strategy.COLOR_THIEF, normalize);
+      if (colorResultCache.lookup(colorCacheKeys[i]).isFallback()) {
+        throw new IllegalStateException("Unable to load " + url);
+      }
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    colorResultCache.close();
+    contentHashIndex.close();
+    httpServer.stop(0);
+  }
+
+  @State(Scope.Thread)
+  public static class Cursor {
+    private int next;
+
+    private ColorCacheKey nextKey(ColorCacheKey[] colorCacheKeys) {
+      ColorCacheKey colorCacheKey = colorCacheKeys[next];
+      next = (next + 1) % colorCacheKeys.length;
+      return colorCacheKey;
+    }
+  }
+
+  @Benchmark
+  public ColorLookup lookup(Cursor cursor) {
+    return colorResultCache.lookup(cursor.nextKey(colorCacheKeys));
+  }
+}
@@ -0,0 +1,100 @@
+package de.selbi.colorfetch.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import de.selbi.colorfetch.data.ColorFetchResult;
+import de.selbi.colorfetch.util.ColorUtil;
+
+/**
+ * The color math, on a fixed set of random colors. The scores are per color.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ColorUtilBenchmark {
+  private static final int COLORS = 1024;
+
+  private int[] packedColors;
+  private ColorFetchResult.RGB[] colors;
+  private ColorFetchResult[] colorFetchResults;
+
+  @Setup
+  public void setup() {
+    Random random = new Random(182);
+    packedColors = new int[COLORS];
+    colors = new ColorFetchResult.RGB[COLORS];
+    colorFetchResults = new ColorFetchResult[COLORS];
+    for (int i = 0; i < COLORS; i++) {
+      packedColors[i] = random.nextInt(0x1000000);
+      colors[i] = ColorFetchResult.RGB.of((packedColors[i] >> 16) & 0xFF, (packedColors[i] >> 8) & 0xFF, packedColors[i] & 0xFF);
+    }
+    for (int i = 0; i < COLORS; i++) {
+      colorFetchResults[i] = ColorFetchResult.of(colors[i], colors[(i + 1) % COLORS], random.nextDouble());
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(COLORS)
+  public void packedPerceivedBrightness(Blackhole blackhole) {
+    for (int rgb : packedColors) {
+      blackhole.consume(ColorUtil.calculatePackedPerceivedBrightness(rgb));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(COLORS)
+  public void perceivedBrightness(Blackhole blackhole) {
+    for (ColorFetchResult.RGB rgb : colors) {
+      blackhole.consume(ColorUtil.calculatePerceivedBrightness(rgb));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(COLORS)
+  public void packedColorfulness(Blackhole blackhole) {
+    for (int rgb : packedColors) {
+      blackhole.consume(ColorUtil.calculatePackedColorfulness(rgb));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(COLORS)
+  public void brightness(Blackhole blackhole) {
+    for (ColorFetchResult.RGB rgb : colors) {
+      blackhole.consume(ColorUtil.calculateBrightness(rgb));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(COLORS)
+  public void normalize(Blackhole blackhole) {
+    for (ColorFetchResult.RGB rgb : colors) {
+      blackhole.consume(ColorUtil.normalize(rgb, 0.5f));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(COLORS)
+  public void normalizeColorFetchResult(Blackhole blackhole) {
+    for (ColorFetchResult colorFetchResult : colorFetchResults) {
+      blackhole.consume(ColorUtil.normalizeColorFetchResult(colorFetchResult, 0.5f));
+    }
+  }
+}
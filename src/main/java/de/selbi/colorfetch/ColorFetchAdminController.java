@@ -0,0 +1,117 @@
+package de.selbi.colorfetch;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import de.selbi.colorfetch.cache.ColorCacheKey;
+import de.selbi.colorfetch.cache.ColorCachePrefetcher;
+import de.selbi.colorfetch.cache.ColorResultCache;
+import de.selbi.colorfetch.data.ColorBatchItem;
+
+/**
+ * Endpoints to warm up the cache of new instances, either by copying the
+ * cache of a running instance or by prefetching a list of images. Only
+ * available if <code>colorfetch.admin.enabled</code> is set.
+ */
+@RestController
+@RequestMapping("/admin")
+@ConditionalOnProperty(prefix = "colorfetch.admin", name = "enabled", havingValue = "true")
+public class ColorFetchAdminController {
+  private static final String SNAPSHOT_FILE_NAME = "colorfetch-cache.snapshot";
+  private static final String RETRY_AFTER_SECONDS = "10";
+
+  private final ColorResultCache colorResultCache;
+  private final ColorCachePrefetcher colorCachePrefetcher;
+  private final int maxPrefetchItems;
+
+  ColorFetchAdminController(ColorResultCache colorResultCache, ColorCachePrefetcher colorCachePrefetcher, ColorFetchProperties colorFetchProperties) {
+    this.colorResultCache = colorResultCache;
+    this.colorCachePrefetcher = colorCachePrefetcher;
+    this.maxPrefetchItems = colorFetchProperties.getPrefetch().getMaxItems();
+  }
+
+  /**
+   * Stream a snapshot of all cached results
+   */
+  @GetMapping("/cache/snapshot")
+  public ResponseEntity<StreamingResponseBody> exportSnapshot() throws UnsupportedOperationException {
+    if (!colorResultCache.isSnapshotSupported()) {
+      throw new UnsupportedOperationException("Snapshots aren't supported by the packed cache, as it doesn't keep the URLs");
+    }
+    return ResponseEntity.ok()
+        .contentType(MediaType.APPLICATION_OCTET_STREAM)
+        .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + SNAPSHOT_FILE_NAME + "\"")
+        .body(colorResultCache::exportSnapshot);
+  }
+
+  /**
+   * Import a snapshot streamed from another instance
+   *
+   * @return the amount of imported results
+   */
+  @PostMapping(value = "/cache/snapshot", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+  public ResponseEntity<Long> importSnapshot(InputStream snapshot) throws IOException {
+    return ResponseEntity.ok(colorResultCache.importSnapshot(snapshot));
+  }
+
+  /**
+   * Load the given images in the background. Responds right away.
+   */
+  @PostMapping("/prefetch")
+  public ResponseEntity<Void> prefetch(@RequestBody List<ColorBatchItem> colorBatchItems) throws IllegalArgumentException {
+    if (colorBatchItems.size() > maxPrefetchItems) {
+      throw new IllegalArgumentException("A prefetch request may contain at most " + maxPrefetchItems + " items");
+    }
+    List<ColorCacheKey> colorCacheKeys = new ArrayList<>(colorBatchItems.size());
+    for (ColorBatchItem colorBatchItem : colorBatchItems) {
+      colorCacheKeys.add(ColorFetchController.toColorCacheKey(colorBatchItem.getUrl(), colorBatchItem.getStrategy(), colorBatchItem.getNormalize()));
+    }
+    colorCachePrefetcher.prefetchAsync(colorCacheKeys);
+    return ResponseEntity.accepted().build();
+  }
+
+  @ExceptionHandler(IOException.class)
+  public ResponseEntity<String> handleInvalidSnapshot(IOException e) {
+    return ResponseEntity
+        .status(HttpStatus.BAD_REQUEST)
+        .body(e.toString());
+  }
+
+  @ExceptionHandler(IllegalArgumentException.class)
+  public ResponseEntity<String> handleInvalidItem(IllegalArgumentException e) {
+    return ResponseEntity
+        .status(HttpStatus.BAD_REQUEST)
+        .body(e.getMessage());
+  }
+
+  @ExceptionHandler(UnsupportedOperationException.class)
+  public ResponseEntity<String> handleUnsupported(UnsupportedOperationException e) {
+    return ResponseEntity
+        .status(HttpStatus.NOT_IMPLEMENTED)
+        .body(e.getMessage());
+  }
+
+  @ExceptionHandler(RejectedExecutionException.class)
+  public ResponseEntity<String> handleSaturation(RejectedExecutionException e) {
+    return ResponseEntity
+        .status(HttpStatus.SERVICE_UNAVAILABLE)
+        .header(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS)
+        .body("Too many prefetch requests are waiting, please try again later");
+  }
+}
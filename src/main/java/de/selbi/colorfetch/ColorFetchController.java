@@ -1,53 +1,486 @@
 package de.selbi.colorfetch;
 
+import java.io.BufferedReader;
 import java.io.IOException;
-import java.util.Optional;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+
 import de.selbi.colorfetch.cache.ColorCacheKey;
+import de.selbi.colorfetch.cache.ColorLookup;
 import de.selbi.colorfetch.cache.ColorResultCache;
+import de.selbi.colorfetch.cache.FetchRejectedException;
+import de.selbi.colorfetch.cache.StageTimings;
+import de.selbi.colorfetch.data.ColorBatchItem;
+import de.selbi.colorfetch.data.ColorBatchResult;
 import de.selbi.colorfetch.data.ColorFetchResult;
+import de.selbi.colorfetch.image.FileSizeLimitException;
+import de.selbi.colorfetch.image.ImageFetcher;
+import de.selbi.colorfetch.image.LimitedInputStream;
 
 @RestController
 public class ColorFetchController {
+  /**
+   * Set on responses that only contain the fallback colors, because the image couldn't be processed
+   */
+  static final String FALLBACK_HEADER = "X-Color-Fallback";
+
+  /**
+   * Set on responses that only contain an approximation, because the result wasn't ready by the requested deadline
+   */
+  static final String PROVISIONAL_HEADER = "X-Color-Provisional";
+
+  /**
+   * The time spent in each stage (in milliseconds) and whether the result was cached,
+   * see <a href="https://www.w3.org/TR/server-timing/">Server Timing</a>
+   */
+  static final String SERVER_TIMING_HEADER = "Server-Timing";
+
+  /**
+   * The strategy parameter that requests the results of all strategies at once
+   */
+  private static final String ALL_STRATEGIES = "all";
+
+  private static final String NDJSON_CONTENT_TYPE = "application/x-ndjson";
+
+  private static final String SERVER_BUSY_MESSAGE = "Server is busy, please try again later";
+  private static final String HOST_BUSY_MESSAGE = "Too many images of this host are being downloaded, please try again later";
+  private static final String RETRY_AFTER_SECONDS = "1";
+
   private final ColorResultCache colorResultCache;
+  private final ObjectMapper objectMapper;
+  private final int maxBatchItems;
+  private final int streamConcurrency;
 
-  ColorFetchController(ColorResultCache colorResultCache) {
+  ColorFetchController(ColorResultCache colorResultCache, ObjectMapper objectMapper, ColorFetchProperties colorFetchProperties) {
     this.colorResultCache = colorResultCache;
+    this.objectMapper = objectMapper;
+    this.maxBatchItems = colorFetchProperties.getBatch().getMaxItems();
+    this.streamConcurrency = Math.max(1, colorFetchProperties.getBatch().getStreamConcurrency());
   }
 
+  /**
+   * Results carry a strong ETag derived from the colors and may be cached by
+   * clients and proxies until the cached result expires. Requests whose
+   * <code>If-None-Match</code> matches get a 304 without a body. Fallbacks
+   * must not be cached, as the image is retried soon.
+   * <p>
+   * If several strategies are requested (<code>all</code> or a comma-separated
+   * list), the image is only downloaded and decoded once and the response maps
+   * each strategy to its result.
+   * <p>
+   * With a <code>deadline</code> (in milliseconds), a result that isn't ready
+   * in time is approximated from a heavily subsampled decode of the image, and
+   * the response is marked as provisional and must not be cached. If the image
+   * isn't even downloaded by then, the fallback is sent instead, marked as both
+   * fallback and provisional. The actual result is still computed and cached,
+   * so it's served from then on.
+   */
   @GetMapping("/color")
-  public ResponseEntity<ColorFetchResult> getColorForImageUrl(
+  public CompletableFuture<ResponseEntity<?>> getColorForImageUrl(
       @RequestParam String url,
       @RequestParam(defaultValue = "color_thief") String strategy,
-      @RequestParam(defaultValue = "0.0") String normalize)
+      @RequestParam(defaultValue = "0.0") String normalize,
+      @RequestParam(required = false) String deadline,
+      @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch)
       throws IllegalArgumentException {
-    ColorCacheKey.Strategy strategyEnumValue;
-    switch (strategy) {
+    long startNanos = System.nanoTime();
+    float normalizeValue = Float.parseFloat(normalize);
+    Duration deadlineDuration = deadline != null ? toDeadline(Long.parseLong(deadline)) : null;
+    if (!isMultipleStrategies(strategy)) {
+      ColorCacheKey colorCacheKey = toColorCacheKey(url, strategy, normalizeValue);
+      CompletableFuture<ColorLookup> colorLookup = deadlineDuration != null
+          ? colorResultCache.lookupAsync(colorCacheKey, deadlineDuration)
+          : colorResultCache.lookupAsync(colorCacheKey);
+      return colorLookup.thenApply(completedLookup ->
+          toResponse(List.of(completedLookup), completedLookup.getColorFetchResult(), ifNoneMatch, startNanos));
+    }
+
+    List<ColorCacheKey> colorCacheKeys = toStrategies(strategy).stream()
+        .map(strategyEnumValue -> toColorCacheKey(url, strategyEnumValue, normalizeValue))
+        .collect(Collectors.toList());
+    List<CompletableFuture<ColorLookup>> colorLookups = deadlineDuration != null
+        ? colorResultCache.lookupStrategiesAsync(colorCacheKeys, deadlineDuration)
+        : colorResultCache.lookupStrategiesAsync(colorCacheKeys);
+    return CompletableFuture.allOf(colorLookups.toArray(CompletableFuture[]::new)).thenApply(v -> {
+      List<ColorLookup> completedColorLookups = colorLookups.stream()
+          .map(CompletableFuture::join)
+          .collect(Collectors.toList());
+      Map<String, ColorBatchResult> colorBatchResults = new LinkedHashMap<>();
+      for (int i = 0; i < colorCacheKeys.size(); i++) {
+        ColorLookup colorLookup = completedColorLookups.get(i);
+        colorBatchResults.put(toStrategyName(colorCacheKeys.get(i).getStrategy()), colorLookup.isFallback()
+            ? ColorBatchResult.fallback(colorLookup.getColorFetchResult())
+            : ColorBatchResult.of(colorLookup.getColorFetchResult()));
+      }
+      return toResponse(completedColorLookups, colorBatchResults, ifNoneMatch, startNanos);
+    });
+  }
+
+  /**
+   * Determine the colors of an image that is posted as the request body
+   * instead of being downloaded from a URL, with the same size limit. The
+   * result is cached by the content of the image, so posting the same image
+   * again doesn't process it again.
+   */
+  @PostMapping(value = "/color", consumes = {"image/*", MediaType.APPLICATION_OCTET_STREAM_VALUE})
+  public CompletableFuture<ResponseEntity<?>> getColorForImage(
+      InputStream image,
+      @RequestParam(defaultValue = "color_thief") String strategy,
+      @RequestParam(defaultValue = "0.0") String normalize,
+      @RequestHeader(value = HttpHeaders.CONTENT_LENGTH, required = false) Long contentLength)
+      throws IllegalArgumentException, IOException {
+    long startNanos = System.nanoTime();
+    ColorCacheKey.Strategy strategyEnumValue = toStrategy(strategy);
+    float normalizeValue = toNormalize(Float.parseFloat(normalize));
+    if (contentLength != null && contentLength > ImageFetcher.MAX_FILE_SIZE) {
+      throw new FileSizeLimitException(ImageFetcher.MAX_FILE_SIZE);
+    }
+    byte[] imageBytes;
+    try (InputStream limitedImage = new LimitedInputStream(image, ImageFetcher.MAX_FILE_SIZE)) {
+      imageBytes = limitedImage.readAllBytes();
+    }
+    return colorResultCache.lookupContentAsync(imageBytes, strategyEnumValue, normalizeValue).thenApply(colorLookup ->
+        toResponse(List.of(colorLookup), colorLookup.getColorFetchResult(), null, startNanos));
+  }
+
+  @PostMapping("/colors")
+  public CompletableFuture<ResponseEntity<List<ColorBatchResult>>> getColorsForImageUrls(@RequestBody List<ColorBatchItem> colorBatchItems)
+      throws IllegalArgumentException {
+    if (colorBatchItems.size() > maxBatchItems) {
+      throw new IllegalArgumentException("A batch may contain at most " + maxBatchItems + " items");
+    }
+
+    List<CompletableFuture<ColorBatchResult>> colorBatchResults = new ArrayList<>(colorBatchItems.size());
+    List<ColorCacheKey> colorCacheKeys = new ArrayList<>();
+    List<Integer> colorCacheKeyIndices = new ArrayList<>();
+    for (int i = 0; i < colorBatchItems.size(); i++) {
+      ColorBatchItem colorBatchItem = colorBatchItems.get(i);
+      try {
+        colorCacheKeys.add(toColorCacheKey(colorBatchItem.getUrl(), colorBatchItem.getStrategy(), colorBatchItem.getNormalize()));
+        colorCacheKeyIndices.add(i);
+        colorBatchResults.add(null);
+      } catch (IllegalArgumentException e) {
+        colorBatchResults.add(CompletableFuture.completedFuture(ColorBatchResult.error(e.getMessage())));
+      }
+    }
+
+    List<CompletableFuture<ColorLookup>> colorLookups = colorResultCache.lookupAll(colorCacheKeys);
+    for (int i = 0; i < colorLookups.size(); i++) {
+      colorBatchResults.set(colorCacheKeyIndices.get(i), colorLookups.get(i).handle(ColorFetchController::toBatchResult));
+    }
+
+    return CompletableFuture.allOf(colorBatchResults.toArray(CompletableFuture[]::new))
+        .thenApply(v -> ResponseEntity.ok(colorBatchResults.stream()
+            .map(CompletableFuture::join)
+            .collect(Collectors.toList())));
+  }
+
+  /**
+   * Look up the colors of any number of image URLs, one per line, and stream
+   * the results back as NDJSON in the order they finish (each result carries
+   * its URL). At most <code>colorfetch.batch.stream-concurrency</code> images
+   * are looked up at the same time, and the next URL is only read once a
+   * result is written, so a slow client slows down the lookups instead of
+   * results piling up in memory.
+   * <p>
+   * The response is written on the request thread rather than asynchronously,
+   * so a stream that runs for hours isn't cut off by the async request timeout.
+   */
+  @PostMapping(value = "/colors/stream", consumes = MediaType.TEXT_PLAIN_VALUE, produces = NDJSON_CONTENT_TYPE)
+  public void streamColorsForImageUrls(
+      InputStream urls,
+      @RequestParam(defaultValue = "color_thief") String strategy,
+      @RequestParam(defaultValue = "0.0") String normalize,
+      HttpServletResponse response)
+      throws IllegalArgumentException, IOException {
+    ColorCacheKey.Strategy strategyEnumValue = toStrategy(strategy);
+    float normalizeValue = toNormalize(Float.parseFloat(normalize));
+    response.setContentType(NDJSON_CONTENT_TYPE);
+    response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+    Writer writer = response.getWriter();
+
+    BufferedReader urlReader = new BufferedReader(new InputStreamReader(urls, StandardCharsets.UTF_8));
+    BlockingQueue<ColorBatchResult> completedResults = new ArrayBlockingQueue<>(streamConcurrency);
+    int inFlight = 0;
+    String url;
+    while ((url = urlReader.readLine()) != null) {
+      url = url.trim();
+      if (url.isEmpty()) {
+        continue;
+      }
+      inFlight -= writeResults(writer, completedResults, inFlight == streamConcurrency);
+
+      String itemUrl = url;
+      inFlight++;
+      try {
+        colorResultCache.lookupAsync(toColorCacheKey(itemUrl, strategyEnumValue, normalizeValue))
+            .handle(ColorFetchController::toBatchResult)
+            .thenAccept(colorBatchResult -> completedResults.add(colorBatchResult.withUrl(itemUrl)));
+      } catch (IllegalArgumentException e) {
+        completedResults.add(ColorBatchResult.error(e.getMessage()).withUrl(itemUrl));
+      }
+    }
+    while (inFlight > 0) {
+      inFlight -= writeResults(writer, completedResults, true);
+    }
+    writer.flush();
+  }
+
+  static ColorCacheKey toColorCacheKey(String url, String strategy, float normalize) throws IllegalArgumentException {
+    return toColorCacheKey(url, toStrategy(strategy), normalize);
+  }
+
+  private static ColorCacheKey toColorCacheKey(String url, ColorCacheKey.Strategy strategy, float normalize) throws IllegalArgumentException {
+    if (url == null || url.isBlank()) {
+      throw new IllegalArgumentException("'url' must be set");
+    }
+
+    return ColorCacheKey.of(url, strategy, toNormalize(normalize));
+  }
+
+  private static float toNormalize(float normalize) throws IllegalArgumentException {
+    if (!(normalize >= 0.0 && normalize <= 1.0)) {
+      throw new IllegalArgumentException("'normalize' must be between 0.0 and 1.0");
+    }
+    return normalize;
+  }
+
+  private static Duration toDeadline(long deadlineMillis) throws IllegalArgumentException {
+    if (deadlineMillis <= 0) {
+      throw new IllegalArgumentException("'deadline' must be a positive number of milliseconds");
+    }
+    return Duration.ofMillis(deadlineMillis);
+  }
+
+  private static ColorBatchResult toBatchResult(ColorLookup colorLookup, Throwable throwable) {
+    if (throwable != null) {
+      return ColorBatchResult.error(SERVER_BUSY_MESSAGE);
+    }
+    return colorLookup.isFallback()
+        ? ColorBatchResult.fallback(colorLookup.getColorFetchResult())
+        : ColorBatchResult.of(colorLookup.getColorFetchResult());
+  }
+
+  /**
+   * Write the completed results as NDJSON lines. If asked to wait, the written
+   * lines are flushed to the client and the next result is waited for first.
+   *
+   * @return the number of written results
+   */
+  private int writeResults(Writer writer, BlockingQueue<ColorBatchResult> completedResults, boolean wait) throws IOException {
+    int written = 0;
+    ColorBatchResult colorBatchResult;
+    if (wait) {
+      writer.flush();
+      try {
+        colorBatchResult = completedResults.take();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting for results");
+      }
+    } else {
+      colorBatchResult = completedResults.poll();
+    }
+    while (colorBatchResult != null) {
+      writer.write(objectMapper.writeValueAsString(colorBatchResult));
+      writer.write('\n');
+      written++;
+      colorBatchResult = completedResults.poll();
+    }
+    return written;
+  }
+
+  private static ColorCacheKey.Strategy toStrategy(String strategy) throws IllegalArgumentException {
+    switch (String.valueOf(strategy).trim()) {
       case "color_thief":
-        strategyEnumValue = ColorCacheKey.Strategy.COLOR_THIEF;
-        break;
+        return ColorCacheKey.Strategy.COLOR_THIEF;
       case "android_palette":
-        strategyEnumValue = ColorCacheKey.Strategy.ANDROID_PALETTE;
-        break;
+        return ColorCacheKey.Strategy.ANDROID_PALETTE;
       default:
         throw new IllegalArgumentException(strategy + " is an invalid strategy. Allowed strategies are: color_thief, android_palette");
     }
+  }
 
-    float normalizeFloat = Float.parseFloat(normalize);
-    if (normalizeFloat < 0.0 || normalizeFloat > 1.0) {
-      throw new IllegalArgumentException("'normalize' must be between 0.0 and 1.0");
+  private static String toStrategyName(ColorCacheKey.Strategy strategy) {
+    return strategy.name().toLowerCase(Locale.ROOT);
+  }
+
+  private static boolean isMultipleStrategies(String strategy) {
+    return ALL_STRATEGIES.equals(strategy) || strategy.indexOf(',') >= 0;
+  }
+
+  /**
+   * @return the distinct strategies of the given comma-separated list (or all of them), in the given order
+   */
+  private static Set<ColorCacheKey.Strategy> toStrategies(String strategies) throws IllegalArgumentException {
+    if (ALL_STRATEGIES.equals(strategies)) {
+      return EnumSet.allOf(ColorCacheKey.Strategy.class);
+    }
+    Set<ColorCacheKey.Strategy> strategySet = new LinkedHashSet<>();
+    for (String strategy : strategies.split(",")) {
+      strategySet.add(toStrategy(strategy));
+    }
+    return strategySet;
+  }
+
+  /**
+   * Build the response for the given lookups, which is only cacheable if none of them is a fallback or provisional
+   */
+  private <T> ResponseEntity<T> toResponse(List<ColorLookup> colorLookups, T body, String ifNoneMatch, long startNanos) {
+    String serverTiming = toServerTiming(colorLookups, System.nanoTime() - startNanos);
+    boolean fallback = colorLookups.stream().anyMatch(ColorLookup::isFallback);
+    boolean provisional = colorLookups.stream().anyMatch(ColorLookup::isProvisional);
+    if (fallback || provisional) {
+      ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+          .header(SERVER_TIMING_HEADER, serverTiming)
+          .cacheControl(CacheControl.noStore());
+      if (fallback) {
+        response.header(FALLBACK_HEADER, Boolean.TRUE.toString());
+      }
+      if (provisional) {
+        response.header(PROVISIONAL_HEADER, Boolean.TRUE.toString());
+      }
+      return response.body(body);
+    }
+
+    String eTag = toETag(colorLookups);
+    CacheControl cacheControl = toCacheControl(colorLookups.stream().mapToLong(ColorLookup::getExpiresAt).min().orElse(0));
+    if (matchesETag(ifNoneMatch, eTag)) {
+      return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+          .header(SERVER_TIMING_HEADER, serverTiming)
+          .eTag(eTag)
+          .cacheControl(cacheControl)
+          .build();
+    }
+    return ResponseEntity.ok()
+        .header(SERVER_TIMING_HEADER, serverTiming)
+        .eTag(eTag)
+        .cacheControl(cacheControl)
+        .body(body);
+  }
+
+  /**
+   * The stages of several lookups are shared (one download and decode for all
+   * strategies), so each one is reported with its longest time
+   */
+  private String toServerTiming(List<ColorLookup> colorLookups, long totalNanos) {
+    boolean fallback = colorLookups.stream().anyMatch(ColorLookup::isFallback);
+    boolean provisional = colorLookups.stream().anyMatch(ColorLookup::isProvisional);
+    boolean cached = colorLookups.stream().allMatch(ColorLookup::isCached);
+    StringBuilder serverTiming = new StringBuilder("cache;desc=")
+        .append(fallback ? "fallback" : provisional ? "provisional" : cached ? "hit" : "miss");
+    for (StageTimings.Stage stage : StageTimings.Stage.values()) {
+      long stageNanos = -1;
+      for (ColorLookup colorLookup : colorLookups) {
+        StageTimings stageTimings = colorLookup.getStageTimings();
+        if (stageTimings != null && stageTimings.hasRun(stage)) {
+          stageNanos = Math.max(stageNanos, stageTimings.getNanos(stage));
+        }
+      }
+      if (stageNanos >= 0) {
+        serverTiming.append(", ").append(stage.getName()).append(";dur=").append(toMillis(stageNanos));
+      }
+    }
+    return serverTiming.append(", total;dur=").append(toMillis(totalNanos)).toString();
+  }
+
+  /**
+   * The ETag is the exact colors and brightness in hex (of every result), so
+   * it's unique per response without having to serialize it first
+   */
+  private static String toETag(List<ColorLookup> colorLookups) {
+    StringBuilder eTag = new StringBuilder("\"");
+    for (ColorLookup colorLookup : colorLookups) {
+      ColorFetchResult colorFetchResult = colorLookup.getColorFetchResult();
+      long colors = ((long) toRgbInt(colorFetchResult.getPrimary()) << 24) | toRgbInt(colorFetchResult.getSecondary());
+      if (eTag.length() > 1) {
+        eTag.append('.');
+      }
+      eTag.append(Long.toHexString(colors)).append('-').append(Long.toHexString(Double.doubleToLongBits(colorFetchResult.getAverageBrightness())));
+    }
+    return eTag.append('"').toString();
+  }
+
+  private static int toRgbInt(ColorFetchResult.RGB rgb) {
+    return (rgb.getR() & 0xFF) << 16 | (rgb.getG() & 0xFF) << 8 | (rgb.getB() & 0xFF);
+  }
+
+  /**
+   * @return true if the given If-None-Match header lists the given ETag (compared weakly, as the RFC demands)
+   */
+  private static boolean matchesETag(String ifNoneMatch, String eTag) {
+    if (ifNoneMatch == null) {
+      return false;
+    }
+    for (String candidate : ifNoneMatch.split(",")) {
+      candidate = candidate.trim();
+      if (candidate.startsWith("W/")) {
+        candidate = candidate.substring(2);
+      }
+      if (candidate.equals("*") || candidate.equals(eTag)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Clients may keep the result as long as it's cached here. Once it's
+   * expired, it might have been computed again from a changed image.
+   */
+  private static CacheControl toCacheControl(long expiresAt) {
+    if (expiresAt <= 0) {
+      return CacheControl.noCache();
     }
+    long maxAgeSeconds = Math.max(0, (expiresAt - System.currentTimeMillis()) / 1000);
+    return CacheControl.maxAge(maxAgeSeconds, TimeUnit.SECONDS).cachePublic();
+  }
 
-    ColorCacheKey colorCacheKey = ColorCacheKey.of(url, strategyEnumValue, normalizeFloat);
-    ColorFetchResult colorFetchResult = colorResultCache.getColor(colorCacheKey);
-    return ResponseEntity.of(Optional.of(colorFetchResult));
+  private static double toMillis(long nanos) {
+    // Microsecond precision is plenty and keeps the header short
+    return (nanos / 1000) / 1000.0;
+  }
+
+  @ExceptionHandler(FileSizeLimitException.class)
+  public ResponseEntity<String> handleTooLargeImage(FileSizeLimitException e) {
+    return ResponseEntity
+        .status(HttpStatus.PAYLOAD_TOO_LARGE)
+        .body(e.getMessage());
   }
 
   @ExceptionHandler(IOException.class)
@@ -64,6 +497,20 @@ public class ColorFetchController {
         .body(e.getMessage());
   }
 
+  @ExceptionHandler(RejectedExecutionException.class)
+  public ResponseEntity<String> handleSaturation(RejectedExecutionException e) {
+    if (e instanceof FetchRejectedException && ((FetchRejectedException) e).getReason() == FetchRejectedException.Reason.HOST_SATURATED) {
+      return ResponseEntity
+          .status(HttpStatus.TOO_MANY_REQUESTS)
+          .header(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS)
+          .body(HOST_BUSY_MESSAGE);
+    }
+    return ResponseEntity
+        .status(HttpStatus.SERVICE_UNAVAILABLE)
+        .header(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS)
+        .body(SERVER_BUSY_MESSAGE);
+  }
+
   @ExceptionHandler(Exception.class)
   public ResponseEntity<String> handleOtherError(Exception e) {
     e.printStackTrace();
@@ -0,0 +1,215 @@
+package de.selbi.colorfetch;
+
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.function.ToDoubleFunction;
+import java.util.stream.Collectors;
+
+import org.cache2k.Cache;
+import org.cache2k.extra.micrometer.Cache2kCacheMetrics;
+import org.springframework.stereotype.Component;
+
+import de.selbi.colorfetch.cache.ColorCacheKey;
+import de.selbi.colorfetch.cache.FetchRejectedException;
+import de.selbi.colorfetch.cache.StageTimings;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.MultiGauge;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.cache.CacheMeterBinder;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+
+/**
+ * The Micrometer meters of ColorFetch, exposed through <code>/actuator/metrics</code>:
+ * <ul>
+ *   <li><code>colorfetch.lookup</code>: time per lookup that missed the cache, by strategy and outcome (miss, fallback)</li>
+ *   <li><code>colorfetch.stage</code>: time per stage (disk, fetch, decode, quantize, approximate) by strategy</li>
+ *   <li><code>colorfetch.fallbacks</code>: served fallbacks by cause</li>
+ *   <li><code>colorfetch.refreshes</code>: background revalidations of cached results by outcome (not_modified, downloaded, failed)</li>
+ *   <li><code>colorfetch.fetch.*</code>: running and waiting downloads (also per host) and rejected requests by reason</li>
+ *   <li><code>cache.*</code>: the statistics of the caches (including the hits), tagged with their name</li>
+ *   <li><code>executor.*</code>: the threads and queues of the I/O and CPU stages (and of the approximations)</li>
+ * </ul>
+ * The meters are created only once (the fallback counters on the first
+ * fallback of each cause), so recording doesn't allocate.
+ */
+@Component
+public class ColorFetchMetrics {
+  public enum Outcome {
+    MISS,
+    FALLBACK
+  }
+
+  public enum Refresh {
+    NOT_MODIFIED,
+    DOWNLOADED,
+    FAILED
+  }
+
+  private static final String FALLBACK_METER = "colorfetch.fallbacks";
+
+  private final MeterRegistry meterRegistry;
+  private final Map<String, Counter> fallbackCounters;
+  private final Map<Refresh, Counter> refreshCounters;
+  private final Map<FetchRejectedException.Reason, Counter> fetchRejectionCounters;
+  private final MultiGauge queuedFetchesByHost;
+  private final Map<ColorCacheKey.Strategy, Map<Outcome, Timer>> lookupTimers;
+  private final Map<ColorCacheKey.Strategy, Map<StageTimings.Stage, Timer>> stageTimers;
+
+  public ColorFetchMetrics(MeterRegistry meterRegistry) {
+    this.meterRegistry = meterRegistry;
+    this.lookupTimers = new EnumMap<>(ColorCacheKey.Strategy.class);
+    this.stageTimers = new EnumMap<>(ColorCacheKey.Strategy.class);
+    this.fallbackCounters = new ConcurrentHashMap<>();
+    this.refreshCounters = new EnumMap<>(Refresh.class);
+    for (Refresh refresh : Refresh.values()) {
+      refreshCounters.put(refresh, Counter.builder("colorfetch.refreshes")
+        .description("Number of cached results revalidated with the origin before they expire")
+        .tag("outcome", refresh.name().toLowerCase(Locale.ROOT))
+        .register(meterRegistry));
+    }
+    this.fetchRejectionCounters = new EnumMap<>(FetchRejectedException.Reason.class);
+    for (FetchRejectedException.Reason reason : FetchRejectedException.Reason.values()) {
+      fetchRejectionCounters.put(reason, Counter.builder("colorfetch.fetch.rejections")
+        .description("Number of requests rejected because too many downloads were running and waiting")
+        .tag("reason", reason.name().toLowerCase(Locale.ROOT))
+        .register(meterRegistry));
+    }
+    this.queuedFetchesByHost = MultiGauge.builder("colorfetch.fetch.host.queued")
+      .description("Number of downloads waiting for their turn, for each host with waiting downloads")
+      .register(meterRegistry);
+    for (ColorCacheKey.Strategy strategy : ColorCacheKey.Strategy.values()) {
+      String strategyTag = strategy.name().toLowerCase(Locale.ROOT);
+
+      Map<Outcome, Timer> timersByOutcome = new EnumMap<>(Outcome.class);
+      for (Outcome outcome : Outcome.values()) {
+        timersByOutcome.put(outcome, Timer.builder("colorfetch.lookup")
+          .description("Time to look up the colors of an image")
+          .tags("strategy", strategyTag, "outcome", outcome.name().toLowerCase(Locale.ROOT))
+          .register(meterRegistry));
+      }
+      lookupTimers.put(strategy, timersByOutcome);
+
+      Map<StageTimings.Stage, Timer> timersByStage = new EnumMap<>(StageTimings.Stage.class);
+      for (StageTimings.Stage stage : StageTimings.Stage.values()) {
+        timersByStage.put(stage, Timer.builder("colorfetch.stage")
+          .description("Time spent in a single stage of computing the colors of an image")
+          .tags("strategy", strategyTag, "stage", stage.getName())
+          .register(meterRegistry));
+      }
+      stageTimers.put(strategy, timersByStage);
+    }
+  }
+
+  public void recordLookup(ColorCacheKey.Strategy strategy, Outcome outcome, long durationNanos) {
+    lookupTimers.get(strategy).get(outcome).record(durationNanos, TimeUnit.NANOSECONDS);
+  }
+
+  public void recordStage(ColorCacheKey.Strategy strategy, StageTimings.Stage stage, long durationNanos) {
+    stageTimers.get(strategy).get(stage).record(durationNanos, TimeUnit.NANOSECONDS);
+  }
+
+  public void countRefresh(Refresh refresh) {
+    refreshCounters.get(refresh).increment();
+  }
+
+  public void countFetchRejection(FetchRejectedException.Reason reason) {
+    fetchRejectionCounters.get(reason).increment();
+  }
+
+  /**
+   * Expose the number of running and waiting downloads of the given scheduler
+   */
+  public <T> void monitorFetches(T scheduler, ToDoubleFunction<T> inFlight, ToDoubleFunction<T> queued) {
+    Gauge.builder("colorfetch.fetch.in.flight", scheduler, inFlight)
+      .description("Number of images being downloaded")
+      .register(meterRegistry);
+    Gauge.builder("colorfetch.fetch.queued", scheduler, queued)
+      .description("Number of downloads waiting for their turn")
+      .register(meterRegistry);
+  }
+
+  /**
+   * Expose the number of waiting downloads of the given hosts, replacing the
+   * previously exposed hosts. Should only be called when the set of hosts
+   * changes, as every call registers the gauges anew.
+   */
+  public <T> void monitorQueuedFetchesByHost(Collection<T> hosts, Function<T, String> hostName, ToDoubleFunction<T> queued) {
+    queuedFetchesByHost.register(hosts.stream()
+      .map(host -> MultiGauge.Row.of(Tags.of("host", hostName.apply(host)), host, queued))
+      .collect(Collectors.toList()), true);
+  }
+
+  /**
+   * Count a served fallback. The cause should be a short, fixed name such as
+   * the simple class name of the exception, so the number of tags stays small.
+   */
+  public void countFallback(String cause) {
+    fallbackCounters.computeIfAbsent(cause, c -> Counter.builder(FALLBACK_METER)
+      .description("Number of fallback results served instead of the colors of an image")
+      .tag("cause", c)
+      .register(meterRegistry))
+      .increment();
+  }
+
+  /**
+   * Expose the statistics of the given (named) cache
+   */
+  public void monitor(Cache<?, ?> cache) {
+    Cache2kCacheMetrics.monitor(meterRegistry, cache);
+  }
+
+  /**
+   * Expose the statistics of a cache that isn't a cache2k one, with the same
+   * meters as {@link ColorFetchMetrics#monitor(Cache)}
+   */
+  public void monitor(String cacheName, Object cache, LongSupplier size, LongSupplier hits, LongSupplier misses,
+      LongSupplier evictions, LongSupplier puts) {
+    new CacheMeterBinder<>(cache, cacheName, Tags.empty()) {
+      @Override
+      protected Long size() {
+        return size.getAsLong();
+      }
+
+      @Override
+      protected long hitCount() {
+        return hits.getAsLong();
+      }
+
+      @Override
+      protected Long missCount() {
+        return misses.getAsLong();
+      }
+
+      @Override
+      protected Long evictionCount() {
+        return evictions.getAsLong();
+      }
+
+      @Override
+      protected long putCount() {
+        return puts.getAsLong();
+      }
+
+      @Override
+      protected void bindImplementationSpecificMetrics(MeterRegistry registry) {
+      }
+    }.bindTo(meterRegistry);
+  }
+
+  /**
+   * Expose the pool and queue size of the given executor
+   */
+  public void monitor(ThreadPoolExecutor executor, String name) {
+    new ExecutorServiceMetrics(executor, name, Tags.empty()).bindTo(meterRegistry);
+  }
+}
@@ -0,0 +1,591 @@
+package de.selbi.colorfetch;
+
+import java.time.Duration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Tuning options for ColorFetch, bound from the <code>colorfetch.*</code>
+ * properties. Every option has a sensible default, so none of them have to be
+ * set explicitly.
+ */
+@Component
+@ConfigurationProperties(prefix = "colorfetch")
+public class ColorFetchProperties {
+  private final Decode decode = new Decode();
+  private final Cache cache = new Cache();
+  private final Batch batch = new Batch();
+  private final Fetch fetch = new Fetch();
+  private final Compute compute = new Compute();
+  private final AndroidPalette androidPalette = new AndroidPalette();
+  private final Admin admin = new Admin();
+  private final Prefetch prefetch = new Prefetch();
+
+  public Decode getDecode() {
+    return decode;
+  }
+
+  public Cache getCache() {
+    return cache;
+  }
+
+  public Batch getBatch() {
+    return batch;
+  }
+
+  public Fetch getFetch() {
+    return fetch;
+  }
+
+  public Compute getCompute() {
+    return compute;
+  }
+
+  public AndroidPalette getAndroidPalette() {
+    return androidPalette;
+  }
+
+  public Admin getAdmin() {
+    return admin;
+  }
+
+  public Prefetch getPrefetch() {
+    return prefetch;
+  }
+
+  public static class Decode {
+    /**
+     * Images with more pixels than this are rejected before decoding.
+     */
+    private long maxPixels = 50_000_000;
+
+    /**
+     * Images for color_thief are subsampled while decoding to roughly this many pixels. Its histogram
+     * samples only part of them anyway (see {@link Compute#getColorThiefSampledPixels()}), so this mostly
+     * bounds the decoding work and the size of the decoded raster.
+     */
+    private long colorThiefPixelBudget = 1024 * 1024;
+
+    /**
+     * Images for android_palette are subsampled while decoding to roughly this many pixels. It's
+     * smaller than the one of color_thief, as the image is scaled down to the much smaller palette
+     * area (see {@link AndroidPalette#getMaxArea()}) right after.
+     */
+    private long androidPalettePixelBudget = 512 * 512;
+
+    /**
+     * The provisional results of requests past their deadline are computed from a separate decode,
+     * which is subsampled to roughly this many pixels. Being tiny, it's meant to be answered quickly
+     * rather than accurately; the exact result is computed with the budget of the strategy as usual.
+     */
+    private long approximatePixelBudget = 64 * 64;
+
+    public long getMaxPixels() {
+      return maxPixels;
+    }
+
+    public void setMaxPixels(long maxPixels) {
+      this.maxPixels = maxPixels;
+    }
+
+    public long getColorThiefPixelBudget() {
+      return colorThiefPixelBudget;
+    }
+
+    public void setColorThiefPixelBudget(long colorThiefPixelBudget) {
+      this.colorThiefPixelBudget = colorThiefPixelBudget;
+    }
+
+    public long getAndroidPalettePixelBudget() {
+      return androidPalettePixelBudget;
+    }
+
+    public void setAndroidPalettePixelBudget(long androidPalettePixelBudget) {
+      this.androidPalettePixelBudget = androidPalettePixelBudget;
+    }
+
+    public long getApproximatePixelBudget() {
+      return approximatePixelBudget;
+    }
+
+    public void setApproximatePixelBudget(long approximatePixelBudget) {
+      this.approximatePixelBudget = approximatePixelBudget;
+    }
+  }
+
+  public static class Cache {
+    private final Disk disk = new Disk();
+    private final Negative negative = new Negative();
+    private final Packed packed = new Packed();
+
+    /**
+     * The maximum number of raw results kept in memory (unless the packed cache is enabled).
+     */
+    private long maxEntries = 50000;
+
+    /**
+     * How long a raw result is kept before the image has to be fetched again.
+     */
+    private Duration ttl = Duration.ofDays(30);
+
+    /**
+     * Results requested within this time before they expire are revalidated with the origin in the background.
+     */
+    private Duration refreshAhead = Duration.ofDays(1);
+
+    /**
+     * The maximum number of image contents to remember the results for, regardless of their URL.
+     */
+    private long contentIndexMaxEntries = 50000;
+
+    /**
+     * A cache snapshot (see <code>/admin/cache/snapshot</code>) to import on startup, if the file exists.
+     */
+    private String snapshotPath = "";
+
+    public long getMaxEntries() {
+      return maxEntries;
+    }
+
+    public void setMaxEntries(long maxEntries) {
+      this.maxEntries = maxEntries;
+    }
+
+    public Duration getTtl() {
+      return ttl;
+    }
+
+    public void setTtl(Duration ttl) {
+      this.ttl = ttl;
+    }
+
+    public Duration getRefreshAhead() {
+      return refreshAhead;
+    }
+
+    public void setRefreshAhead(Duration refreshAhead) {
+      this.refreshAhead = refreshAhead;
+    }
+
+    public long getContentIndexMaxEntries() {
+      return contentIndexMaxEntries;
+    }
+
+    public void setContentIndexMaxEntries(long contentIndexMaxEntries) {
+      this.contentIndexMaxEntries = contentIndexMaxEntries;
+    }
+
+    public String getSnapshotPath() {
+      return snapshotPath;
+    }
+
+    public void setSnapshotPath(String snapshotPath) {
+      this.snapshotPath = snapshotPath;
+    }
+
+    public Disk getDisk() {
+      return disk;
+    }
+
+    public Negative getNegative() {
+      return negative;
+    }
+
+    public Packed getPacked() {
+      return packed;
+    }
+  }
+
+  public static class Packed {
+    /**
+     * Stores the raw results as packed primitives keyed by a hash of the URL, instead of objects.
+     * This needs 24 bytes per result, but the cache can't be exported as snapshot anymore.
+     */
+    private boolean enabled = false;
+
+    /**
+     * The memory used by the packed cache (at most 1.5 GiB).
+     */
+    private long maxBytes = 64L * 1024 * 1024;
+
+    /**
+     * Allocates the packed cache outside the heap (see -XX:MaxDirectMemorySize).
+     */
+    private boolean offHeap = false;
+
+    public boolean isEnabled() {
+      return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+      this.enabled = enabled;
+    }
+
+    public long getMaxBytes() {
+      return maxBytes;
+    }
+
+    public void setMaxBytes(long maxBytes) {
+      this.maxBytes = maxBytes;
+    }
+
+    public boolean isOffHeap() {
+      return offHeap;
+    }
+
+    public void setOffHeap(boolean offHeap) {
+      this.offHeap = offHeap;
+    }
+  }
+
+  public static class Negative {
+    /**
+     * How long to serve the fallback after a URL failed for the first time.
+     * Every consecutive failure doubles this, up to the maximum TTL.
+     */
+    private Duration initialTtl = Duration.ofSeconds(30);
+
+    /**
+     * The upper limit for the exponential backoff of failing URLs.
+     */
+    private Duration maxTtl = Duration.ofHours(1);
+
+    /**
+     * The maximum number of failing URLs to remember.
+     */
+    private long maxEntries = 10000;
+
+    public Duration getInitialTtl() {
+      return initialTtl;
+    }
+
+    public void setInitialTtl(Duration initialTtl) {
+      this.initialTtl = initialTtl;
+    }
+
+    public Duration getMaxTtl() {
+      return maxTtl;
+    }
+
+    public void setMaxTtl(Duration maxTtl) {
+      this.maxTtl = maxTtl;
+    }
+
+    public long getMaxEntries() {
+      return maxEntries;
+    }
+
+    public void setMaxEntries(long maxEntries) {
+      this.maxEntries = maxEntries;
+    }
+  }
+
+  public static class Disk {
+    /**
+     * The file of the persistent cache tier. If not set, the persistent tier is disabled.
+     */
+    private String path = "";
+
+    /**
+     * The file is compacted once it grows beyond this size. If the live entries alone
+     * exceed half of it, the oldest ones are dropped.
+     */
+    private long maxBytes = 64L * 1024 * 1024;
+
+    /**
+     * The maximum number of results waiting to be written. Any further ones are dropped.
+     */
+    private int writeQueueCapacity = 10000;
+
+    public boolean isEnabled() {
+      return path != null && !path.isBlank();
+    }
+
+    public String getPath() {
+      return path;
+    }
+
+    public void setPath(String path) {
+      this.path = path;
+    }
+
+    public long getMaxBytes() {
+      return maxBytes;
+    }
+
+    public void setMaxBytes(long maxBytes) {
+      this.maxBytes = maxBytes;
+    }
+
+    public int getWriteQueueCapacity() {
+      return writeQueueCapacity;
+    }
+
+    public void setWriteQueueCapacity(int writeQueueCapacity) {
+      this.writeQueueCapacity = writeQueueCapacity;
+    }
+  }
+
+  public static class Batch {
+    /**
+     * The maximum number of images in a single batch request.
+     */
+    private int maxItems = 500;
+
+    /**
+     * The number of images of a streamed request looked up at the same time.
+     */
+    private int streamConcurrency = 16;
+
+    public int getMaxItems() {
+      return maxItems;
+    }
+
+    public void setMaxItems(int maxItems) {
+      this.maxItems = maxItems;
+    }
+
+    public int getStreamConcurrency() {
+      return streamConcurrency;
+    }
+
+    public void setStreamConcurrency(int streamConcurrency) {
+      this.streamConcurrency = streamConcurrency;
+    }
+  }
+
+  public static class Fetch {
+    /**
+     * Timeout for establishing the connection to the origin.
+     */
+    private Duration connectTimeout = Duration.ofSeconds(5);
+
+    /**
+     * Timeout for reading from the origin once connected.
+     */
+    private Duration readTimeout = Duration.ofSeconds(10);
+
+    /**
+     * The number of images downloaded in parallel.
+     */
+    private int threads = 64;
+
+    /**
+     * The number of downloads that may wait for their turn in total. Any further requests are rejected.
+     */
+    private int queueCapacity = 1000;
+
+    /**
+     * The number of images downloaded in parallel from the same host.
+     */
+    private int maxPerHost = 8;
+
+    /**
+     * The number of downloads that may wait for their turn per host. Any further requests for images of that host are rejected.
+     */
+    private int maxQueuedPerHost = 100;
+
+    /**
+     * How long a download may wait for its turn before the request is rejected.
+     */
+    private Duration maxQueueWait = Duration.ofSeconds(5);
+
+    public Duration getConnectTimeout() {
+      return connectTimeout;
+    }
+
+    public void setConnectTimeout(Duration connectTimeout) {
+      this.connectTimeout = connectTimeout;
+    }
+
+    public Duration getReadTimeout() {
+      return readTimeout;
+    }
+
+    public void setReadTimeout(Duration readTimeout) {
+      this.readTimeout = readTimeout;
+    }
+
+    public int getThreads() {
+      return threads;
+    }
+
+    public void setThreads(int threads) {
+      this.threads = threads;
+    }
+
+    public int getQueueCapacity() {
+      return queueCapacity;
+    }
+
+    public void setQueueCapacity(int queueCapacity) {
+      this.queueCapacity = queueCapacity;
+    }
+
+    public int getMaxPerHost() {
+      return maxPerHost;
+    }
+
+    public void setMaxPerHost(int maxPerHost) {
+      this.maxPerHost = maxPerHost;
+    }
+
+    public int getMaxQueuedPerHost() {
+      return maxQueuedPerHost;
+    }
+
+    public void setMaxQueuedPerHost(int maxQueuedPerHost) {
+      this.maxQueuedPerHost = maxQueuedPerHost;
+    }
+
+    public Duration getMaxQueueWait() {
+      return maxQueueWait;
+    }
+
+    public void setMaxQueueWait(Duration maxQueueWait) {
+      this.maxQueueWait = maxQueueWait;
+    }
+  }
+
+  public static class Compute {
+    /**
+     * The number of images decoded and quantized in parallel. Defaults to the number of CPU cores.
+     * The approximations for requests past their deadline get another quarter of this (at least 1).
+     */
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * The number of images that may wait for a free thread. Any further requests are rejected.
+     */
+    private int queueCapacity = 1000;
+
+    /**
+     * Images with at least this many pixels (after decoding) build their color histogram in parallel stripes
+     * on the common fork-join pool. With the default pixel budgets, this only applies if those are raised.
+     */
+    private long parallelQuantizationMinPixels = 4L * 1024 * 1024;
+
+    /**
+     * The number of pixels sampled for the color histogram of <code>color_thief</code>. Larger images
+     * sample every n-th pixel to get close to it, smaller ones sample every pixel.
+     */
+    private long colorThiefSampledPixels = 640 * 640 / 5;
+
+    public int getThreads() {
+      return threads;
+    }
+
+    public void setThreads(int threads) {
+      this.threads = threads;
+    }
+
+    public int getQueueCapacity() {
+      return queueCapacity;
+    }
+
+    public void setQueueCapacity(int queueCapacity) {
+      this.queueCapacity = queueCapacity;
+    }
+
+    public long getParallelQuantizationMinPixels() {
+      return parallelQuantizationMinPixels;
+    }
+
+    public void setParallelQuantizationMinPixels(long parallelQuantizationMinPixels) {
+      this.parallelQuantizationMinPixels = parallelQuantizationMinPixels;
+    }
+
+    public long getColorThiefSampledPixels() {
+      return colorThiefSampledPixels;
+    }
+
+    public void setColorThiefSampledPixels(long colorThiefSampledPixels) {
+      this.colorThiefSampledPixels = colorThiefSampledPixels;
+    }
+  }
+
+  public static class AndroidPalette {
+    /**
+     * Images are scaled down to at most this amount of pixels before generating the palette.
+     */
+    private int maxArea = 112 * 112;
+
+    /**
+     * The maximum number of colors in the palette the swatches are picked from.
+     */
+    private int maxColors = 16;
+
+    public int getMaxArea() {
+      return maxArea;
+    }
+
+    public void setMaxArea(int maxArea) {
+      this.maxArea = maxArea;
+    }
+
+    public int getMaxColors() {
+      return maxColors;
+    }
+
+    public void setMaxColors(int maxColors) {
+      this.maxColors = maxColors;
+    }
+  }
+
+  public static class Admin {
+    /**
+     * Enables the <code>/admin</code> endpoints. They aren't secured, so only enable them behind a trusted network.
+     */
+    private boolean enabled = false;
+
+    public boolean isEnabled() {
+      return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+      this.enabled = enabled;
+    }
+  }
+
+  public static class Prefetch {
+    /**
+     * The number of images of a prefetch request loaded at the same time.
+     */
+    private int concurrency = 4;
+
+    /**
+     * The maximum number of images in a single prefetch request.
+     */
+    private int maxItems = 10000;
+
+    /**
+     * The number of prefetch requests that may wait for the current one to finish. Any further ones are rejected.
+     */
+    private int queueCapacity = 10;
+
+    public int getConcurrency() {
+      return concurrency;
+    }
+
+    public void setConcurrency(int concurrency) {
+      this.concurrency = concurrency;
+    }
+
+    public int getMaxItems() {
+      return maxItems;
+    }
+
+    public void setMaxItems(int maxItems) {
+      this.maxItems = maxItems;
+    }
+
+    public int getQueueCapacity() {
+      return queueCapacity;
+    }
+
+    public void setQueueCapacity(int queueCapacity) {
+      this.queueCapacity = queueCapacity;
+    }
+  }
+}
@@ -0,0 +1,55 @@
+package de.selbi.colorfetch.cache;
+
+import java.util.Map;
+
+import org.cache2k.Cache;
+import org.cache2k.Cache2kBuilder;
+
+import de.selbi.colorfetch.ColorFetchMetrics;
+
+/**
+ * Stores the results as objects in a cache2k cache with a fixed amount of
+ * entries, each expiring at its own time. This is the default.
+ */
+class Cache2kResultStore implements ResultStore {
+  private final Cache<ColorCacheKey, StoredResult> colorCache;
+
+  Cache2kResultStore(long maxEntries, ColorFetchMetrics colorFetchMetrics) {
+    this.colorCache = Cache2kBuilder.of(ColorCacheKey.class, StoredResult.class)
+      .name("colorfetch-raw")
+      .expiryPolicy((key, storedResult, startTime, currentEntry) -> storedResult.getExpiresAt())
+      .entryCapacity(maxEntries)
+      .build();
+    colorFetchMetrics.monitor(colorCache);
+  }
+
+  @Override
+  public StoredResult get(ColorCacheKey rawColorCacheKey) {
+    return colorCache.peek(rawColorCacheKey);
+  }
+
+  @Override
+  public void put(ColorCacheKey rawColorCacheKey, StoredResult storedResult) {
+    colorCache.put(rawColorCacheKey, storedResult);
+  }
+
+  @Override
+  public void putIfAbsent(ColorCacheKey rawColorCacheKey, StoredResult storedResult) {
+    colorCache.putIfAbsent(rawColorCacheKey, storedResult);
+  }
+
+  @Override
+  public boolean isIterable() {
+    return true;
+  }
+
+  @Override
+  public Iterable<Map.Entry<ColorCacheKey, StoredResult>> entries() {
+    return colorCache.asMap().entrySet();
+  }
+
+  @Override
+  public void close() {
+    colorCache.close();
+  }
+}
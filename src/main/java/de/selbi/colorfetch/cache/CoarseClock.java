@@ -0,0 +1,39 @@
+package de.selbi.colorfetch.cache;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * The current time in milliseconds, read from a field that a background
+ * thread advances every {@link CoarseClock#RESOLUTION_MILLIS}. Used on the
+ * hit path, where {@link System#currentTimeMillis()} costs about as much as
+ * the hit itself, to check expiry times that are hours or days apart anyway.
+ */
+final class CoarseClock {
+  private static final long RESOLUTION_MILLIS = 100;
+
+  private final ScheduledExecutorService ticker;
+  private volatile long millis;
+
+  CoarseClock() {
+    this.millis = System.currentTimeMillis();
+    CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("color-clock-");
+    threadFactory.setDaemon(true);
+    this.ticker = Executors.newSingleThreadScheduledExecutor(threadFactory);
+    this.ticker.scheduleAtFixedRate(() -> millis = System.currentTimeMillis(), RESOLUTION_MILLIS, RESOLUTION_MILLIS, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * @return the current time in milliseconds since the epoch, lagging behind by at most the resolution
+   */
+  long millis() {
+    return millis;
+  }
+
+  void close() {
+    ticker.shutdownNow();
+  }
+}
@@ -0,0 +1,142 @@
+package de.selbi.colorfetch.cache;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import de.selbi.colorfetch.data.ColorFetchResult;
+import de.selbi.colorfetch.util.ColorUtil;
+import de.selbi.colorfetch.util.ContentHash;
+
+/**
+ * Compact binary representation of raw cache keys and results, used whenever
+ * cache entries leave the heap.
+ */
+final class ColorCacheCodec {
+  /**
+   * Primary and secondary color (3 bytes each) plus the average brightness
+   */
+  static final int RESULT_BYTES = 3 + 3 + Double.BYTES;
+
+  private static final int MAX_URL_BYTES = 0xFFFF;
+
+  /**
+   * The average brightness is packed into 16 bits (a precision of about 0.00002)
+   */
+  private static final int PACKED_BRIGHTNESS_MAX = 0xFFFF;
+
+  /**
+   * Spreads the hashes of the same URL with different strategies (golden ratio)
+   */
+  private static final long STRATEGY_HASH_STEP = 0x9E3779B97F4A7C15L;
+
+  /**
+   * The packed fallback, which is unpacked as {@link ColorFetchResult#FALLBACK} itself, so it's still recognized as such
+   */
+  private static final long PACKED_FALLBACK = packResult(ColorFetchResult.FALLBACK);
+
+  private ColorCacheCodec() {
+  }
+
+  /**
+   * @param key the raw cache key
+   * @return the URL as UTF-8 bytes
+   * @throws IOException if the URL is too long to be encoded
+   */
+  static byte[] encodeUrl(ColorCacheKey key) throws IOException {
+    byte[] urlBytes = key.getUrl().getBytes(StandardCharsets.UTF_8);
+    if (urlBytes.length > MAX_URL_BYTES) {
+      throw new IOException("URL too long to be encoded");
+    }
+    return urlBytes;
+  }
+
+  /**
+   * @param urlBytes the encoded URL
+   * @return the amount of bytes written by {@link ColorCacheCodec#writeKey}
+   */
+  static int keyBytes(byte[] urlBytes) {
+    return Short.BYTES + urlBytes.length + Byte.BYTES;
+  }
+
+  static void writeKey(DataOutput out, byte[] urlBytes, ColorCacheKey key) throws IOException {
+    out.writeShort(urlBytes.length);
+    out.write(urlBytes);
+    out.writeByte(key.getStrategy().ordinal());
+  }
+
+  static ColorCacheKey readKey(DataInput in) throws IOException {
+    byte[] urlBytes = new byte[in.readUnsignedShort()];
+    in.readFully(urlBytes);
+    int strategyOrdinal = in.readUnsignedByte();
+    ColorCacheKey.Strategy[] strategies = ColorCacheKey.Strategy.values();
+    if (strategyOrdinal >= strategies.length) {
+      throw new IOException("Unknown strategy: " + strategyOrdinal);
+    }
+    return ColorCacheKey.of(new String(urlBytes, StandardCharsets.UTF_8), strategies[strategyOrdinal], 0.0f);
+  }
+
+  static void writeResult(DataOutput out, ColorFetchResult colorFetchResult) throws IOException {
+    writeRgb(out, colorFetchResult.getPrimary());
+    writeRgb(out, colorFetchResult.getSecondary());
+    out.writeDouble(colorFetchResult.getAverageBrightness());
+  }
+
+  static ColorFetchResult readResult(DataInput in) throws IOException {
+    ColorFetchResult.RGB primary = readRgb(in);
+    ColorFetchResult.RGB secondary = readRgb(in);
+    return ColorFetchResult.of(primary, secondary, in.readDouble());
+  }
+
+  /**
+   * Hash the URL and strategy of the given raw cache key. With 64 bits,
+   * collisions are negligible even for many millions of keys.
+   *
+   * @param key the raw cache key
+   * @return the xxHash64 of the key (never 0)
+   */
+  static long hashKey(ColorCacheKey key) {
+    long hash = ContentHash.hash(key.getUrl().getBytes(StandardCharsets.UTF_8)) + key.getStrategy().ordinal() * STRATEGY_HASH_STEP;
+    return hash != 0 ? hash : 1;
+  }
+
+  /**
+   * Pack the given result into a single long: 24 bits per color and 16 bits
+   * for the average brightness (0.0..1.0).
+   */
+  static long packResult(ColorFetchResult colorFetchResult) {
+    long primary = packRgb(colorFetchResult.getPrimary());
+    long secondary = packRgb(colorFetchResult.getSecondary());
+    long brightness = Math.round(Math.min(Math.max(colorFetchResult.getAverageBrightness(), 0.0), 1.0) * PACKED_BRIGHTNESS_MAX);
+    return primary << 40 | secondary << 16 | brightness;
+  }
+
+  static ColorFetchResult unpackResult(long packedResult) {
+    if (packedResult == PACKED_FALLBACK) {
+      return ColorFetchResult.FALLBACK;
+    }
+    ColorFetchResult.RGB primary = unpackRgb((int) (packedResult >>> 40));
+    ColorFetchResult.RGB secondary = unpackRgb((int) (packedResult >>> 16));
+    double brightness = (double) (packedResult & PACKED_BRIGHTNESS_MAX) / PACKED_BRIGHTNESS_MAX;
+    return ColorFetchResult.of(primary, secondary, brightness);
+  }
+
+  private static long packRgb(ColorFetchResult.RGB rgb) {
+    return ColorUtil.packRgb(rgb.getR() & 0xFF, rgb.getG() & 0xFF, rgb.getB() & 0xFF);
+  }
+
+  private static ColorFetchResult.RGB unpackRgb(int rgb) {
+    return ColorFetchResult.RGB.of((rgb >> 16) & 0xFF, (rgb >> 8) & 0xFF, rgb & 0xFF);
+  }
+
+  private static void writeRgb(DataOutput out, ColorFetchResult.RGB rgb) throws IOException {
+    out.writeByte(rgb.getR());
+    out.writeByte(rgb.getG());
+    out.writeByte(rgb.getB());
+  }
+
+  private static ColorFetchResult.RGB readRgb(DataInput in) throws IOException {
+    return ColorFetchResult.RGB.of(in.readUnsignedByte(), in.readUnsignedByte(), in.readUnsignedByte());
+  }
+}
@@ -34,6 +34,24 @@ public class ColorCacheKey {
     return normalize;
   }
 
+  /**
+   * Returns the key of the raw (not normalized) result for the same URL and
+   * strategy. Normalization is cheap and applied on read, so the expensive
+   * computation only needs to be cached once per URL and strategy.
+   *
+   * @return this key with normalization set to 0.0
+   */
+  public ColorCacheKey withoutNormalization() {
+    return Float.compare(normalize, 0.0f) == 0 ? this : of(url, strategy, 0.0f);
+  }
+
+  /**
+   * @return true if a minimum brightness is set for this key
+   */
+  public boolean isNormalized() {
+    return normalize > 0.0f;
+  }
+
   @Override
   public boolean equals(Object o) {
     if (this == o)
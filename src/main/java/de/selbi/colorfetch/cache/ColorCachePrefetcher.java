@@ -0,0 +1,70 @@
+package de.selbi.colorfetch.cache;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import de.selbi.colorfetch.ColorFetchProperties;
+
+/**
+ * Fills the cache in the background, e.g. to warm up a new instance with the
+ * most requested images. Prefetch requests are worked off one after another
+ * by a single thread, which keeps only a few images of a request in flight
+ * at the same time, so regular requests still get most of the capacity.
+ */
+@Component
+public class ColorCachePrefetcher {
+  private final ColorResultCache colorResultCache;
+  private final int concurrency;
+  private final ThreadPoolExecutor prefetchExecutor;
+
+  public ColorCachePrefetcher(ColorResultCache colorResultCache, ColorFetchProperties colorFetchProperties) {
+    this.colorResultCache = colorResultCache;
+    ColorFetchProperties.Prefetch prefetchProperties = colorFetchProperties.getPrefetch();
+    this.concurrency = Math.max(1, prefetchProperties.getConcurrency());
+    this.prefetchExecutor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+      new ArrayBlockingQueue<>(prefetchProperties.getQueueCapacity()),
+      new CustomizableThreadFactory("color-prefetch-"),
+      new ThreadPoolExecutor.AbortPolicy());
+    this.prefetchExecutor.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * Queue the given keys to be looked up in the background. Keys that can't be
+   * looked up because the server is saturated are skipped.
+   *
+   * @param colorCacheKeys the keys to look up
+   * @throws RejectedExecutionException if too many prefetch requests are waiting already
+   */
+  public void prefetchAsync(List<ColorCacheKey> colorCacheKeys) {
+    prefetchExecutor.execute(() -> prefetch(colorCacheKeys));
+  }
+
+  @PreDestroy
+  public void close() {
+    prefetchExecutor.shutdownNow();
+  }
+
+  //////////////////
+
+  private void prefetch(List<ColorCacheKey> colorCacheKeys) {
+    Semaphore inFlight = new Semaphore(concurrency);
+    for (ColorCacheKey colorCacheKey : colorCacheKeys) {
+      try {
+        inFlight.acquire();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+      colorResultCache.lookupAsync(colorCacheKey).whenComplete((colorLookup, throwable) -> inFlight.release());
+    }
+  }
+}
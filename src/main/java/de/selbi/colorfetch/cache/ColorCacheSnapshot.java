@@ -0,0 +1,114 @@
+package de.selbi.colorfetch.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+import de.selbi.colorfetch.data.ColorFetchResult;
+
+/**
+ * Streamable snapshot of the raw cache tier, used to warm up new instances.
+ * A snapshot is a header followed by one record per result (see
+ * {@link ColorCacheCodec}) until the end of the stream, so it can be written
+ * and read without knowing the amount of results up front. A truncated
+ * snapshot yields all the records before the cut. Each record also carries
+ * the expiry time and the validators of its image, so the importing instance
+ * revalidates the result just like the exporting one would have.
+ */
+final class ColorCacheSnapshot {
+  private static final int FORMAT_HEADER = 0x43465332; // "CFS2"
+
+  private static final int MAX_VALIDATOR_LENGTH = 1024;
+
+  private ColorCacheSnapshot() {
+  }
+
+  /**
+   * Write a snapshot of the given results. The fallback isn't written, as it
+   * should be computed again rather than carried over.
+   *
+   * @param out the stream to write to (not closed)
+   * @param results the raw results
+   * @return the amount of written results
+   * @throws IOException if writing fails
+   */
+  static long write(OutputStream out, Iterable<Map.Entry<ColorCacheKey, StoredResult>> results) throws IOException {
+    DataOutputStream dataOut = new DataOutputStream(new BufferedOutputStream(out));
+    dataOut.writeInt(FORMAT_HEADER);
+    long written = 0;
+    for (Map.Entry<ColorCacheKey, StoredResult> result : results) {
+      StoredResult storedResult = result.getValue();
+      if (storedResult.getColorFetchResult() == ColorFetchResult.FALLBACK) {
+        continue;
+      }
+      byte[] urlBytes;
+      try {
+        urlBytes = ColorCacheCodec.encodeUrl(result.getKey());
+      } catch (IOException e) {
+        continue;
+      }
+      ColorCacheCodec.writeKey(dataOut, urlBytes, result.getKey());
+      ColorCacheCodec.writeResult(dataOut, storedResult.getColorFetchResult());
+      dataOut.writeLong(storedResult.getExpiresAt());
+      writeValidator(dataOut, storedResult.getETag());
+      writeValidator(dataOut, storedResult.getLastModified());
+      written++;
+    }
+    dataOut.flush();
+    return written;
+  }
+
+  /**
+   * Read a snapshot, passing every result that hasn't expired yet to the given consumer.
+   *
+   * @param in the stream to read from (not closed)
+   * @param results the consumer of the raw results
+   * @return the amount of read results that haven't expired
+   * @throws IOException if the stream isn't a snapshot or reading fails
+   */
+  static long read(InputStream in, BiConsumer<ColorCacheKey, StoredResult> results) throws IOException {
+    DataInputStream dataIn = new DataInputStream(new BufferedInputStream(in));
+    if (dataIn.readInt() != FORMAT_HEADER) {
+      throw new IOException("Not a cache snapshot");
+    }
+    long read = 0;
+    try {
+      while (true) {
+        ColorCacheKey colorCacheKey = ColorCacheCodec.readKey(dataIn);
+        ColorFetchResult colorFetchResult = ColorCacheCodec.readResult(dataIn);
+        long expiresAt = dataIn.readLong();
+        String eTag = readValidator(dataIn);
+        String lastModified = readValidator(dataIn);
+        if (expiresAt > System.currentTimeMillis()) {
+          results.accept(colorCacheKey, StoredResult.of(colorFetchResult, expiresAt, eTag, lastModified));
+          read++;
+        }
+      }
+    } catch (EOFException e) {
+      // End of the snapshot (or a truncated last record)
+    }
+    return read;
+  }
+
+  //////////////////
+
+  private static void writeValidator(DataOutputStream dataOut, String validator) throws IOException {
+    // Overly long validators are dropped, which only makes the next revalidation unconditional
+    boolean present = validator != null && validator.length() <= MAX_VALIDATOR_LENGTH;
+    dataOut.writeBoolean(present);
+    if (present) {
+      dataOut.writeUTF(validator);
+    }
+  }
+
+  private static String readValidator(DataInputStream dataIn) throws IOException {
+    return dataIn.readBoolean() ? dataIn.readUTF() : null;
+  }
+}
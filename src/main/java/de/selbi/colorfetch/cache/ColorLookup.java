@@ -0,0 +1,95 @@
+package de.selbi.colorfetch.cache;
+
+import de.selbi.colorfetch.data.ColorFetchResult;
+
+/**
+ * The outcome of looking up a color cache key: the result itself, along with
+ * whether it's just the fallback served because the image couldn't be
+ * processed, or a provisional approximation served because the result
+ * wasn't ready by the deadline of the request.
+ */
+public class ColorLookup {
+  private final ColorFetchResult colorFetchResult;
+  private final boolean fallback;
+  private final boolean provisional;
+  private final String fallbackCause;
+  private final long expiresAt;
+  private final StageTimings stageTimings;
+
+  private ColorLookup(ColorFetchResult colorFetchResult, boolean fallback, boolean provisional, String fallbackCause, long expiresAt,
+      StageTimings stageTimings) {
+    this.colorFetchResult = colorFetchResult;
+    this.fallback = fallback;
+    this.provisional = provisional;
+    this.fallbackCause = fallbackCause;
+    this.expiresAt = expiresAt;
+    this.stageTimings = stageTimings;
+  }
+
+  public static ColorLookup of(ColorFetchResult colorFetchResult) {
+    return new ColorLookup(colorFetchResult, false, false, null, 0, null);
+  }
+
+  public static ColorLookup fallback(String fallbackCause) {
+    return new ColorLookup(ColorFetchResult.FALLBACK, true, false, fallbackCause, 0, null);
+  }
+
+  static ColorLookup of(ColorFetchResult colorFetchResult, long expiresAt, StageTimings stageTimings) {
+    return new ColorLookup(colorFetchResult, false, false, null, expiresAt, stageTimings);
+  }
+
+  static ColorLookup fallback(String fallbackCause, StageTimings stageTimings) {
+    return new ColorLookup(ColorFetchResult.FALLBACK, true, false, fallbackCause, 0, stageTimings);
+  }
+
+  static ColorLookup provisional(ColorFetchResult colorFetchResult, StageTimings stageTimings) {
+    return new ColorLookup(colorFetchResult, false, true, null, 0, stageTimings);
+  }
+
+  static ColorLookup provisionalFallback(String fallbackCause, StageTimings stageTimings) {
+    return new ColorLookup(ColorFetchResult.FALLBACK, true, true, fallbackCause, 0, stageTimings);
+  }
+
+  public ColorFetchResult getColorFetchResult() {
+    return colorFetchResult;
+  }
+
+  public boolean isFallback() {
+    return fallback;
+  }
+
+  /**
+   * @return true if this is only an approximation, which is neither cached nor the final result
+   */
+  public boolean isProvisional() {
+    return provisional;
+  }
+
+  /**
+   * @return a description of why the fallback is served (null if this isn't a fallback)
+   */
+  public String getFallbackCause() {
+    return fallbackCause;
+  }
+
+  /**
+   * @return the time the cached result expires in milliseconds since the epoch (0 if unknown or this is a fallback or provisional)
+   */
+  public long getExpiresAt() {
+    return expiresAt;
+  }
+
+  /**
+   * @return true if the result (or the fallback for a recent failure) came straight from the cache
+   */
+  public boolean isCached() {
+    return stageTimings == null;
+  }
+
+  /**
+   * @return the time spent in each stage by this lookup (null if it came straight from the cache)
+   */
+  public StageTimings getStageTimings() {
+    return stageTimings;
+  }
+}
@@ -2,41 +2,208 @@ package de.selbi.colorfetch.cache;
 
 import java.awt.image.BufferedImage;
 import java.io.IOException;
-import java.net.HttpURLConnection;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.net.URI;
-import java.net.URL;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
-import javax.imageio.ImageIO;
+import javax.annotation.PreDestroy;
 
 import org.cache2k.Cache;
 import org.cache2k.Cache2kBuilder;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Component;
 
+import de.selbi.colorfetch.ColorFetchMetrics;
+import de.selbi.colorfetch.ColorFetchProperties;
 import de.selbi.colorfetch.data.ColorFetchResult;
+import de.selbi.colorfetch.image.FetchedImage;
+import de.selbi.colorfetch.image.ImageDecoder;
+import de.selbi.colorfetch.image.ImageFetcher;
 import de.selbi.colorfetch.provider.AndroidPaletteColorProvider;
 import de.selbi.colorfetch.provider.ColorThiefColorProvider;
 import de.selbi.colorfetch.util.ColorUtil;
+import de.selbi.colorfetch.util.ContentHash;
 
 @Component
 public class ColorResultCache {
-  private static final long MAX_CACHE_ENTRIES = 50000;
-  private static final long MAX_FILE_SIZE = 10 * (2 << 19);
+  private static final long MAX_NORMALIZED_CACHE_ENTRIES = 10000;
+
+  /**
+   * The fallback cause counted when a provider itself couldn't find any colors
+   */
+  private static final String PROVIDER_FALLBACK_CAUSE = "ProviderFallback";
+
+  /**
+   * The fallback cause counted when a lookup couldn't even be approximated by its deadline
+   */
+  private static final String DEADLINE_FALLBACK_CAUSE = "DeadlineExceeded";
+
+  /**
+   * The approximation stage gets this fraction of the threads and queue of the CPU stage
+   */
+  private static final int APPROXIMATE_THREAD_DIVISOR = 4;
 
   private final ColorThiefColorProvider colorThiefColorProvider;
   private final AndroidPaletteColorProvider androidPaletteColorProvider;
+  private final ImageFetcher imageFetcher;
+  private final ImageDecoder imageDecoder;
+  private final DiskColorStore diskColorStore;
+  private final ContentHashIndex contentHashIndex;
+  private final ColorFetchMetrics colorFetchMetrics;
+
+  /**
+   * The raw (not normalized) results, keyed only by URL and strategy.
+   * This is where the expensive work of downloading and quantizing happens.
+   * Results that are requested shortly before they expire are revalidated
+   * with the origin in the background, so hot images never expire.
+   */
+  private final ResultStore colorCache;
+
+  /**
+   * A small second tier for normalized results, derived from the raw tier.
+   * Each one remembers the expiry time of the raw result it was derived from,
+   * so it's derived again once the raw result was refreshed.
+   */
+  private final Cache<ColorCacheKey, NormalizedResult> normalizedColorCache;
+
+  /**
+   * Raw keys whose last computation failed. These are served the fallback
+   * until their retry time has passed, so that failing URLs don't hammer the
+   * origin but still recover on their own. Entries are kept for a while after
+   * their retry time to back off exponentially on consecutive failures.
+   */
+  private final Cache<ColorCacheKey, Failure> failureCache;
 
-  private final Cache<ColorCacheKey, ColorFetchResult> colorCache;
+  private final ColorFetchProperties.Negative negativeCacheProperties;
+  private final long ttlMillis;
+  private final long refreshAheadMillis;
+  private final CoarseClock clock;
+
+  /**
+   * Raw keys that are currently being loaded or refreshed, so that concurrent
+   * requests for the same image share a single download and computation.
+   */
+  private final Map<ColorCacheKey, CompletableFuture<StoredResult>> pendingLoads;
+
+  /**
+   * The downloaded images of the raw keys that are currently being computed,
+   * so that requests whose deadline passes in the meantime can approximate
+   * their colors from them.
+   */
+  private final Map<ColorCacheKey, byte[]> computingImages;
+
+  /**
+   * The I/O stage, which downloads the images (and reads the persistent tier).
+   */
+  private final ThreadPoolExecutor fetchExecutor;
+
+  /**
+   * Limits the downloads per origin host and in total, in front of the I/O stage.
+   */
+  private final FetchScheduler fetchScheduler;
+
+  /**
+   * The CPU stage, which decodes and quantizes the images.
+   */
+  private final ThreadPoolExecutor computeExecutor;
+
+  /**
+   * Approximates the colors for requests past their deadline, separately from
+   * the CPU stage, as that's usually what they're waiting for. It only gets a
+   * quarter of its threads, so the CPU work stays close to the configured bound.
+   */
+  private final ThreadPoolExecutor approximateExecutor;
+  private final long approximatePixelBudget;
 
-  public ColorResultCache(ColorThiefColorProvider colorThiefColorProvider, AndroidPaletteColorProvider androidPaletteColorProvider) {
+  /**
+   * Starts the approximations when the deadlines pass. The task of a request
+   * is cancelled (and removed) as soon as its lookups complete.
+   */
+  private final ScheduledThreadPoolExecutor deadlineExecutor;
+
+  public ColorResultCache(ColorThiefColorProvider colorThiefColorProvider, AndroidPaletteColorProvider androidPaletteColorProvider,
+      ImageFetcher imageFetcher, ImageDecoder imageDecoder, DiskColorStore diskColorStore,
+      ContentHashIndex contentHashIndex, ColorFetchMetrics colorFetchMetrics, ColorFetchProperties colorFetchProperties) {
     this.colorThiefColorProvider = colorThiefColorProvider;
     this.androidPaletteColorProvider = androidPaletteColorProvider;
+    this.imageFetcher = imageFetcher;
+    this.imageDecoder = imageDecoder;
+    this.diskColorStore = diskColorStore;
+    this.contentHashIndex = contentHashIndex;
+    this.colorFetchMetrics = colorFetchMetrics;
+    this.negativeCacheProperties = colorFetchProperties.getCache().getNegative();
+    this.ttlMillis = colorFetchProperties.getCache().getTtl().toMillis();
+    this.refreshAheadMillis = Math.min(colorFetchProperties.getCache().getRefreshAhead().toMillis(), ttlMillis);
+    this.pendingLoads = new ConcurrentHashMap<>();
+    this.computingImages = new ConcurrentHashMap<>();
+    this.clock = new CoarseClock();
+
+    ColorFetchProperties.Fetch fetchProperties = colorFetchProperties.getFetch();
+    this.fetchExecutor = createExecutor("color-fetch-", fetchProperties.getThreads(), fetchProperties.getQueueCapacity());
+    this.fetchScheduler = new FetchScheduler(fetchExecutor, fetchProperties, colorFetchMetrics);
+
+    ColorFetchProperties.Compute computeProperties = colorFetchProperties.getCompute();
+    this.computeExecutor = createExecutor("color-compute-", computeProperties.getThreads(), computeProperties.getQueueCapacity());
+    this.approximateExecutor = createExecutor("color-approximate-",
+      Math.max(1, computeProperties.getThreads() / APPROXIMATE_THREAD_DIVISOR), Math.max(1, computeProperties.getQueueCapacity() / APPROXIMATE_THREAD_DIVISOR));
+    this.approximatePixelBudget = colorFetchProperties.getDecode().getApproximatePixelBudget();
+    this.deadlineExecutor = createDeadlineExecutor();
 
-    this.colorCache = Cache2kBuilder.of(ColorCacheKey.class, ColorFetchResult.class)
-      .loader(this::getColorFetchResult)
+    ColorFetchProperties.Packed packedProperties = colorFetchProperties.getCache().getPacked();
+    this.colorCache = packedProperties.isEnabled()
+      ? new PackedResultStore(packedProperties.getMaxBytes(), packedProperties.isOffHeap(), clock, colorFetchMetrics)
+      : new Cache2kResultStore(colorFetchProperties.getCache().getMaxEntries(), colorFetchMetrics);
+
+    this.normalizedColorCache = Cache2kBuilder.of(ColorCacheKey.class, NormalizedResult.class)
+      .name("colorfetch-normalized")
       .eternal(true)
-      .entryCapacity(MAX_CACHE_ENTRIES)
+      .entryCapacity(MAX_NORMALIZED_CACHE_ENTRIES)
+      .build();
+
+    this.failureCache = Cache2kBuilder.of(ColorCacheKey.class, Failure.class)
+      .name("colorfetch-failures")
+      .expiryPolicy((key, failure, startTime, currentEntry) -> failure.getRetryAt() + negativeCacheProperties.getMaxTtl().toMillis())
+      .entryCapacity(negativeCacheProperties.getMaxEntries())
       .build();
+
+    String snapshotPath = colorFetchProperties.getCache().getSnapshotPath();
+    if (snapshotPath != null && !snapshotPath.isBlank()) {
+      importSnapshot(Paths.get(snapshotPath));
+    }
+
+    colorFetchMetrics.monitor(normalizedColorCache);
+    colorFetchMetrics.monitor(failureCache);
+    colorFetchMetrics.monitor(fetchExecutor, "color-fetch");
+    colorFetchMetrics.monitor(computeExecutor, "color-compute");
+    colorFetchMetrics.monitor(approximateExecutor, "color-approximate");
+    colorFetchMetrics.monitor(deadlineExecutor, "color-deadline");
   }
 
   /**
@@ -45,71 +212,842 @@ public class ColorResultCache {
    *
    * @param colorCacheKey the given color cache key
    * @return the color fetch result
+   * @throws RejectedExecutionException if the result isn't cached and the server is saturated
    */
   public ColorFetchResult getColor(ColorCacheKey colorCacheKey) {
-    return colorCache.get(colorCacheKey);
+    return lookup(colorCacheKey).getColorFetchResult();
+  }
+
+  /**
+   * Look up the color for the given color cache key (might be a cached result).
+   * If an error occurred now or recently, the lookup is marked as fallback.
+   *
+   * @param colorCacheKey the given color cache key
+   * @return the lookup with the color fetch result
+   * @throws RejectedExecutionException if the result isn't cached and the server is saturated
+   */
+  public ColorLookup lookup(ColorCacheKey colorCacheKey) {
+    try {
+      return lookupAsync(colorCacheKey).join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RejectedExecutionException) {
+        throw (RejectedExecutionException) e.getCause();
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Look up the color for the given color cache key without blocking. Cached
+   * results (and recent failures) are returned as already completed future,
+   * and revalidated in the background if they're about to expire. Anything
+   * else is downloaded on the I/O stage and computed on the CPU stage.
+   * If an error occurred, the lookup is marked as fallback.
+   *
+   * @param colorCacheKey the given color cache key
+   * @return a future of the lookup with the color fetch result, which fails with a
+   * {@link RejectedExecutionException} if the server is saturated
+   */
+  public CompletableFuture<ColorLookup> lookupAsync(ColorCacheKey colorCacheKey) {
+    ColorLookup cachedLookup = lookupCached(colorCacheKey);
+    if (cachedLookup != null) {
+      return CompletableFuture.completedFuture(cachedLookup);
+    }
+    long startNanos = System.nanoTime();
+    ColorCacheKey rawColorCacheKey = colorCacheKey.withoutNormalization();
+    StageTimings stageTimings = new StageTimings();
+    return completeLookup(colorCacheKey, failureCache.peek(rawColorCacheKey), startNanos, stageTimings, load(rawColorCacheKey, stageTimings));
+  }
+
+  /**
+   * Look up the colors of a single image for several strategies at once. The
+   * given keys must only differ in their strategy. If more than one of them
+   * isn't cached, the image is downloaded and decoded only once (with the
+   * largest pixel budget of those strategies) and the strategies are computed
+   * in parallel on the CPU stage. Each result is cached individually, just
+   * like by a regular lookup.
+   *
+   * @param colorCacheKeys the color cache keys of the same image and normalization
+   * @return the futures of the lookups, in the same order as the given keys
+   */
+  public List<CompletableFuture<ColorLookup>> lookupStrategiesAsync(List<ColorCacheKey> colorCacheKeys) {
+    long startNanos = System.nanoTime();
+    StageTimings stageTimings = new StageTimings();
+    List<CompletableFuture<ColorLookup>> colorLookups = new ArrayList<>(colorCacheKeys.size());
+    List<Integer> sharedIndices = new ArrayList<>();
+    List<ColorCacheKey> sharedRawKeys = new ArrayList<>();
+    List<CompletableFuture<StoredResult>> sharedPendingLoads = new ArrayList<>();
+    for (ColorCacheKey colorCacheKey : colorCacheKeys) {
+      ColorLookup cachedLookup = lookupCached(colorCacheKey);
+      if (cachedLookup != null) {
+        colorLookups.add(CompletableFuture.completedFuture(cachedLookup));
+        continue;
+      }
+      ColorCacheKey rawColorCacheKey = colorCacheKey.withoutNormalization();
+      CompletableFuture<StoredResult> pendingLoad = new CompletableFuture<>();
+      CompletableFuture<StoredResult> existingLoad = startLoad(rawColorCacheKey, pendingLoad);
+      colorLookups.add(existingLoad != null
+        ? completeLookup(colorCacheKey, failureCache.peek(rawColorCacheKey), startNanos, new StageTimings(), existingLoad)
+        : null);
+      if (existingLoad == null) {
+        sharedIndices.add(colorLookups.size() - 1);
+        sharedRawKeys.add(rawColorCacheKey);
+        sharedPendingLoads.add(pendingLoad);
+      }
+    }
+
+    if (!sharedRawKeys.isEmpty()) {
+      List<CompletableFuture<StoredResult>> loads = loadShared(sharedRawKeys, stageTimings);
+      for (int i = 0; i < sharedRawKeys.size(); i++) {
+        ColorCacheKey rawColorCacheKey = sharedRawKeys.get(i);
+        CompletableFuture<StoredResult> load = complete(rawColorCacheKey, sharedPendingLoads.get(i), loads.get(i));
+        int index = sharedIndices.get(i);
+        colorLookups.set(index, completeLookup(colorCacheKeys.get(index), failureCache.peek(rawColorCacheKey), startNanos, stageTimings, load));
+      }
+    }
+    return colorLookups;
+  }
+
+  /**
+   * Look up the color for the given color cache key like
+   * {@link ColorResultCache#lookupAsync(ColorCacheKey)}, but don't wait longer
+   * than the given deadline for it. If the result isn't ready by then and the
+   * image is downloaded already, its colors are approximated by running the
+   * strategy on a heavily subsampled decode (see
+   * <code>colorfetch.decode.approximate-pixel-budget</code>) and the lookup is
+   * marked as provisional. The actual result keeps being computed and is cached
+   * as usual. If there's nothing to approximate (because the image isn't even
+   * downloaded by the deadline) or the approximation fails, the lookup is
+   * completed with the fallback, marked as both fallback and provisional.
+   *
+   * @param colorCacheKey the given color cache key
+   * @param deadline how long to wait for the actual result
+   * @return a future of the lookup with the (possibly provisional) color fetch result, which fails with a
+   * {@link RejectedExecutionException} if the server is saturated
+   */
+  public CompletableFuture<ColorLookup> lookupAsync(ColorCacheKey colorCacheKey, Duration deadline) {
+    return withDeadline(List.of(colorCacheKey), List.of(lookupAsync(colorCacheKey)), deadline).get(0);
+  }
+
+  /**
+   * Look up the colors of a single image for several strategies at once like
+   * {@link ColorResultCache#lookupStrategiesAsync(List)}, approximating the
+   * ones that aren't ready by the deadline like
+   * {@link ColorResultCache#lookupAsync(ColorCacheKey, Duration)}. The image
+   * is only decoded once for the approximations of all strategies.
+   *
+   * @param colorCacheKeys the color cache keys of the same image and normalization
+   * @param deadline how long to wait for the actual results
+   * @return the futures of the lookups, in the same order as the given keys
+   */
+  public List<CompletableFuture<ColorLookup>> lookupStrategiesAsync(List<ColorCacheKey> colorCacheKeys, Duration deadline) {
+    return withDeadline(colorCacheKeys, lookupStrategiesAsync(colorCacheKeys), deadline);
+  }
+
+  /**
+   * Look up the color of an image that was uploaded rather than downloaded.
+   * Its raw result is cached by the hash of its content (see
+   * {@link ContentHashIndex}), so uploading the same image again, or an image
+   * that was already downloaded from a URL, skips decoding and quantization.
+   * Failed uploads aren't remembered, as there's no URL to retry.
+   *
+   * @param imageBytes the image file
+   * @param strategy the strategy
+   * @param normalize the minimum brightness of the colors (0.0 to keep them as they are)
+   * @return a future of the lookup with the color fetch result, which fails with a
+   * {@link RejectedExecutionException} if the server is saturated
+   */
+  public CompletableFuture<ColorLookup> lookupContentAsync(byte[] imageBytes, ColorCacheKey.Strategy strategy, float normalize) {
+    long contentHash = ContentHash.hash(imageBytes);
+    ColorFetchResult knownColorFetchResult = contentHashIndex.get(contentHash, strategy);
+    if (knownColorFetchResult != null) {
+      return CompletableFuture.completedFuture(ColorLookup.of(normalize(knownColorFetchResult, normalize), 0, null));
+    }
+
+    long startNanos = System.nanoTime();
+    StageTimings stageTimings = new StageTimings();
+    CompletableFuture<ColorFetchResult> computation;
+    try {
+      computation = CompletableFuture
+        .supplyAsync(() -> decodeImage(strategy, imageBytes, imageDecoder.getPixelBudget(strategy), stageTimings), computeExecutor)
+        .thenApply(bufferedImage -> quantizeImage(strategy, bufferedImage, stageTimings));
+    } catch (RejectedExecutionException e) {
+      computation = CompletableFuture.failedFuture(e);
+    }
+    return computation.handle((colorFetchResult, throwable) -> {
+      if (throwable == null && colorFetchResult != ColorFetchResult.FALLBACK) {
+        contentHashIndex.put(contentHash, strategy, colorFetchResult);
+        colorFetchMetrics.recordLookup(strategy, ColorFetchMetrics.Outcome.MISS, System.nanoTime() - startNanos);
+        return ColorLookup.of(normalize(colorFetchResult, normalize), 0, stageTimings);
+      }
+      Throwable cause = throwable != null ? unwrap(throwable) : null;
+      if (cause instanceof RejectedExecutionException) {
+        throw new CompletionException(cause);
+      }
+      String fallbackCause = cause != null ? cause.getClass().getSimpleName() : PROVIDER_FALLBACK_CAUSE;
+      colorFetchMetrics.countFallback(fallbackCause);
+      colorFetchMetrics.recordLookup(strategy, ColorFetchMetrics.Outcome.FALLBACK, System.nanoTime() - startNanos);
+      return ColorLookup.fallback(cause != null ? cause.toString() : fallbackCause, stageTimings);
+    });
+  }
+
+  /**
+   * Look up the colors for all given color cache keys. Cached results are
+   * completed right away, the remaining ones are computed in parallel.
+   *
+   * @param colorCacheKeys the given color cache keys
+   * @return the futures of the lookups, in the same order as the given keys
+   */
+  public List<CompletableFuture<ColorLookup>> lookupAll(List<ColorCacheKey> colorCacheKeys) {
+    return colorCacheKeys.stream()
+      .map(this::lookupAsync)
+      .collect(Collectors.toList());
+  }
+
+  /**
+   * @return true if the cache can be exported (see {@link ColorResultCache#exportSnapshot(OutputStream)})
+   */
+  public boolean isSnapshotSupported() {
+    return colorCache.isIterable();
+  }
+
+  /**
+   * Write a snapshot of all raw results to the given stream, for
+   * {@link ColorResultCache#importSnapshot(InputStream)} on another instance.
+   *
+   * @param out the stream to write to (not closed)
+   * @return the amount of written results
+   * @throws IOException if writing fails
+   * @throws UnsupportedOperationException if the packed cache is used, which doesn't keep the URLs
+   */
+  public long exportSnapshot(OutputStream out) throws IOException {
+    return ColorCacheSnapshot.write(out, colorCache.entries());
+  }
+
+  /**
+   * Read a snapshot written by {@link ColorResultCache#exportSnapshot(OutputStream)}.
+   * Results that are cached already are kept.
+   *
+   * @param in the stream to read from (not closed)
+   * @return the amount of read results
+   * @throws IOException if the stream isn't a snapshot or reading fails
+   */
+  public long importSnapshot(InputStream in) throws IOException {
+    return ColorCacheSnapshot.read(in, colorCache::putIfAbsent);
+  }
+
+  @PreDestroy
+  public void close() {
+    fetchExecutor.shutdownNow();
+    computeExecutor.shutdownNow();
+    approximateExecutor.shutdownNow();
+    deadlineExecutor.shutdownNow();
+    colorCache.close();
+    normalizedColorCache.close();
+    failureCache.close();
+    clock.close();
   }
 
   //////////////////
 
-  private URL openValidUrl(String url) throws IOException {
-    URL parsedUrl = URI.create(url).toURL();
-    if (isFileSizeWithinBounds(parsedUrl)) {
-      HttpURLConnection urlConnection = (HttpURLConnection) parsedUrl.openConnection();
-      int responseCode = urlConnection.getResponseCode();
-      if (HttpURLConnection.HTTP_OK == responseCode) {
-        return parsedUrl;
+  /**
+   * @return the lookup of the cached result or of the fallback for a recent failure, or null if the result has to be loaded
+   */
+  private ColorLookup lookupCached(ColorCacheKey colorCacheKey) {
+    ColorCacheKey rawColorCacheKey = colorCacheKey.withoutNormalization();
+    StoredResult storedResult = colorCache.get(rawColorCacheKey);
+    if (storedResult != null) {
+      if (storedResult.getExpiresAt() - clock.millis() < refreshAheadMillis) {
+        refreshAsync(rawColorCacheKey, storedResult);
+      }
+      // Hits aren't timed, they're counted by the cache statistics and timing them would cost more than the hit itself
+      return toColorLookup(colorCacheKey, storedResult, null);
+    }
+
+    long startNanos = System.nanoTime();
+    Failure failure = failureCache.peek(rawColorCacheKey);
+    if (failure != null && System.currentTimeMillis() < failure.getRetryAt()) {
+      colorFetchMetrics.countFallback(failure.getCauseType());
+      colorFetchMetrics.recordLookup(colorCacheKey.getStrategy(), ColorFetchMetrics.Outcome.FALLBACK, System.nanoTime() - startNanos);
+      return ColorLookup.fallback(failure.getCause());
+    }
+    return null;
+  }
+
+  /**
+   * Complete the returned lookups with the given ones, or with an approximation
+   * (or the provisional fallback) if that's done first after the deadline
+   */
+  private List<CompletableFuture<ColorLookup>> withDeadline(List<ColorCacheKey> colorCacheKeys,
+      List<CompletableFuture<ColorLookup>> colorLookups, Duration deadline) {
+    if (colorLookups.stream().allMatch(CompletableFuture::isDone)) {
+      return colorLookups;
+    }
+    List<CompletableFuture<ColorLookup>> deadlineLookups = new ArrayList<>(colorLookups.size());
+    for (CompletableFuture<ColorLookup> colorLookup : colorLookups) {
+      CompletableFuture<ColorLookup> deadlineLookup = new CompletableFuture<>();
+      colorLookup.whenComplete((completedLookup, throwable) -> {
+        if (throwable == null) {
+          deadlineLookup.complete(completedLookup);
+        } else {
+          deadlineLookup.completeExceptionally(unwrap(throwable));
+        }
+      });
+      deadlineLookups.add(deadlineLookup);
+    }
+    ScheduledFuture<?> approximation = deadlineExecutor.schedule(() -> approximate(colorCacheKeys, deadlineLookups), deadline.toNanos(), TimeUnit.NANOSECONDS);
+    CompletableFuture.allOf(deadlineLookups.toArray(new CompletableFuture<?>[0]))
+      .whenComplete((completedLookups, throwable) -> approximation.cancel(false));
+    return deadlineLookups;
+  }
+
+  /**
+   * Approximate the colors of the lookups that are still pending, from the
+   * image that's being computed for them. The lookups that can't be
+   * approximated (because their image isn't downloaded yet or the
+   * approximation failed) are completed with the provisional fallback.
+   */
+  private void approximate(List<ColorCacheKey> colorCacheKeys, List<CompletableFuture<ColorLookup>> colorLookups) {
+    byte[] imageBytes = null;
+    Set<ColorCacheKey.Strategy> strategies = EnumSet.noneOf(ColorCacheKey.Strategy.class);
+    for (int i = 0; i < colorCacheKeys.size(); i++) {
+      byte[] computingImageBytes = colorLookups.get(i).isDone() ? null : computingImages.get(colorCacheKeys.get(i).withoutNormalization());
+      if (computingImageBytes != null && (imageBytes == null || imageBytes == computingImageBytes)) {
+        imageBytes = computingImageBytes;
+        strategies.add(colorCacheKeys.get(i).getStrategy());
+      }
+    }
+
+    byte[] approximatedImageBytes = imageBytes;
+    StageTimings stageTimings = new StageTimings();
+    CompletableFuture<Map<ColorCacheKey.Strategy, ColorFetchResult>> approximation;
+    try {
+      approximation = approximatedImageBytes != null
+        ? CompletableFuture.supplyAsync(() -> approximateImage(strategies, approximatedImageBytes, stageTimings), approximateExecutor)
+        : CompletableFuture.completedFuture(Collections.emptyMap());
+    } catch (RejectedExecutionException e) {
+      approximation = CompletableFuture.failedFuture(e);
+    }
+    approximation.whenComplete((colorFetchResults, throwable) -> {
+      for (int i = 0; i < colorCacheKeys.size(); i++) {
+        ColorCacheKey colorCacheKey = colorCacheKeys.get(i);
+        ColorFetchResult colorFetchResult = colorFetchResults != null ? colorFetchResults.get(colorCacheKey.getStrategy()) : null;
+        if (colorFetchResult != null && colorFetchResult != ColorFetchResult.FALLBACK) {
+          colorLookups.get(i).complete(ColorLookup.provisional(normalize(colorFetchResult, colorCacheKey.getNormalize()), stageTimings));
+        } else if (colorLookups.get(i).complete(ColorLookup.provisionalFallback(DEADLINE_FALLBACK_CAUSE, stageTimings))) {
+          colorFetchMetrics.countFallback(DEADLINE_FALLBACK_CAUSE);
+        }
+      }
+    });
+  }
+
+  /**
+   * Turn the given load into the lookup, remembering the failure if it failed
+   * (following the given previous one)
+   */
+  private CompletableFuture<ColorLookup> completeLookup(ColorCacheKey colorCacheKey, Failure failure, long startNanos,
+      StageTimings stageTimings, CompletableFuture<StoredResult> load) {
+    ColorCacheKey rawColorCacheKey = colorCacheKey.withoutNormalization();
+    ColorCacheKey.Strategy strategy = colorCacheKey.getStrategy();
+    return load.handle((loadedResult, throwable) -> {
+      if (throwable == null) {
+        if (failure != null) {
+          failureCache.remove(rawColorCacheKey);
+        }
+        ColorLookup colorLookup = toColorLookup(colorCacheKey, loadedResult, stageTimings);
+        colorFetchMetrics.recordLookup(strategy, colorLookup.isFallback() ? ColorFetchMetrics.Outcome.FALLBACK : ColorFetchMetrics.Outcome.MISS,
+          System.nanoTime() - startNanos);
+        return colorLookup;
+      }
+      Throwable cause = unwrap(throwable);
+      if (cause instanceof RejectedExecutionException) {
+        // Our own saturation isn't the image's fault, so don't remember it as failure
+        throw new CompletionException(cause);
+      }
+      Failure nextFailure = Failure.after(failure, cause, negativeCacheProperties);
+      failureCache.put(rawColorCacheKey, nextFailure);
+      colorFetchMetrics.countFallback(nextFailure.getCauseType());
+      colorFetchMetrics.recordLookup(strategy, ColorFetchMetrics.Outcome.FALLBACK, System.nanoTime() - startNanos);
+      return ColorLookup.fallback(nextFailure.getCause(), stageTimings);
+    });
+  }
+
+  /**
+   * Turn the given raw result into the lookup. A provider fallback is cached
+   * like any other result (it won't change until the image does), but it's
+   * still served as fallback.
+   */
+  private ColorLookup toColorLookup(ColorCacheKey colorCacheKey, StoredResult rawResult, StageTimings stageTimings) {
+    if (rawResult.getColorFetchResult() == ColorFetchResult.FALLBACK) {
+      colorFetchMetrics.countFallback(PROVIDER_FALLBACK_CAUSE);
+      return ColorLookup.fallback(PROVIDER_FALLBACK_CAUSE, stageTimings);
+    }
+    if (colorCacheKey.isNormalized()) {
+      NormalizedResult normalizedResult = normalizedColorCache.peek(colorCacheKey);
+      if (normalizedResult == null || normalizedResult.getRawExpiresAt() != rawResult.getExpiresAt()) {
+        normalizedResult = new NormalizedResult(rawResult.getExpiresAt(),
+          ColorUtil.normalizeColorFetchResult(rawResult.getColorFetchResult(), colorCacheKey.getNormalize()));
+        normalizedColorCache.put(colorCacheKey, normalizedResult);
+      }
+      return ColorLookup.of(normalizedResult.getColorFetchResult(), rawResult.getExpiresAt(), stageTimings);
+    }
+    return ColorLookup.of(rawResult.getColorFetchResult(), rawResult.getExpiresAt(), stageTimings);
+  }
+
+  /**
+   * Load the raw result, recording the time of each stage in the given timings.
+   * Requests that join a load which is already pending don't get any timings.
+   */
+  private CompletableFuture<StoredResult> load(ColorCacheKey rawColorCacheKey, StageTimings stageTimings) {
+    CompletableFuture<StoredResult> pendingLoad = new CompletableFuture<>();
+    CompletableFuture<StoredResult> existingLoad = startLoad(rawColorCacheKey, pendingLoad);
+    if (existingLoad != null) {
+      return existingLoad;
+    }
+
+    CompletableFuture<StoredResult> load;
+    try {
+      load = diskColorStore.isEnabled()
+        ? CompletableFuture.supplyAsync(() -> loadFromDisk(rawColorCacheKey, stageTimings), fetchExecutor)
+          .thenCompose(diskResult -> diskResult != null
+            ? CompletableFuture.completedFuture(diskResult)
+            : calculate(rawColorCacheKey, null, stageTimings))
+        : calculate(rawColorCacheKey, null, stageTimings);
+    } catch (RejectedExecutionException e) {
+      load = CompletableFuture.failedFuture(e);
+    }
+    return complete(rawColorCacheKey, pendingLoad, load);
+  }
+
+  /**
+   * Register the given pending load for the given raw key, unless the key is
+   * loaded already or another load finished in the meantime.
+   *
+   * @return the load to wait for instead, or null if the given one has to be carried out
+   */
+  private CompletableFuture<StoredResult> startLoad(ColorCacheKey rawColorCacheKey, CompletableFuture<StoredResult> pendingLoad) {
+    CompletableFuture<StoredResult> existingPendingLoad = pendingLoads.putIfAbsent(rawColorCacheKey, pendingLoad);
+    if (existingPendingLoad != null) {
+      return existingPendingLoad;
+    }
+    StoredResult storedResult = colorCache.get(rawColorCacheKey);
+    if (storedResult != null) {
+      pendingLoads.remove(rawColorCacheKey, pendingLoad);
+      pendingLoad.complete(storedResult);
+      return pendingLoad;
+    }
+    return null;
+  }
+
+  /**
+   * Load the raw results of several strategies for the same image, downloading
+   * it only once if none of them is stored on disk
+   *
+   * @return the loads, in the same order as the given keys
+   */
+  private List<CompletableFuture<StoredResult>> loadShared(List<ColorCacheKey> rawColorCacheKeys, StageTimings stageTimings) {
+    CompletableFuture<List<CompletableFuture<StoredResult>>> loads;
+    try {
+      loads = diskColorStore.isEnabled()
+        ? CompletableFuture.supplyAsync(() -> rawColorCacheKeys.stream()
+            .map(rawColorCacheKey -> loadFromDisk(rawColorCacheKey, stageTimings))
+            .collect(Collectors.toList()), fetchExecutor)
+          .thenApply(diskResults -> {
+            List<ColorCacheKey> missingRawKeys = new ArrayList<>();
+            for (int i = 0; i < diskResults.size(); i++) {
+              if (diskResults.get(i) == null) {
+                missingRawKeys.add(rawColorCacheKeys.get(i));
+              }
+            }
+            Iterator<CompletableFuture<StoredResult>> calculations = missingRawKeys.isEmpty()
+              ? Collections.emptyIterator()
+              : calculateShared(missingRawKeys, stageTimings).iterator();
+            return diskResults.stream()
+              .map(diskResult -> diskResult != null ? CompletableFuture.completedFuture(diskResult) : calculations.next())
+              .collect(Collectors.toList());
+          })
+        : CompletableFuture.completedFuture(calculateShared(rawColorCacheKeys, stageTimings));
+    } catch (RejectedExecutionException e) {
+      loads = CompletableFuture.failedFuture(e);
+    }
+    return flatten(loads, rawColorCacheKeys.size());
+  }
+
+  /**
+   * Download the image once and compute the results of all given strategies from it
+   *
+   * @return the calculations, in the same order as the given keys
+   */
+  private List<CompletableFuture<StoredResult>> calculateShared(List<ColorCacheKey> rawColorCacheKeys, StageTimings stageTimings) {
+    CompletableFuture<List<CompletableFuture<StoredResult>>> calculations = fetchScheduler
+      .submit(hostOf(rawColorCacheKeys.get(0)), () -> fetchImage(rawColorCacheKeys.get(0), null, stageTimings), true)
+      .thenApply(fetchedImage -> computeAll(rawColorCacheKeys, fetchedImage, stageTimings));
+    return flatten(calculations, rawColorCacheKeys.size());
+  }
+
+  private static <T> List<CompletableFuture<T>> flatten(CompletableFuture<List<CompletableFuture<T>>> futures, int size) {
+    List<CompletableFuture<T>> flattened = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      int index = i;
+      flattened.add(futures.thenCompose(list -> list.get(index)));
+    }
+    return flattened;
+  }
+
+  /**
+   * Revalidate the given result with the origin in the background, unless it's
+   * refreshed already, the origin failed recently, or the downloads from its
+   * host are saturated. If the refresh fails, the result is kept until it expires.
+   */
+  private void refreshAsync(ColorCacheKey rawColorCacheKey, StoredResult storedResult) {
+    if (pendingLoads.containsKey(rawColorCacheKey)) {
+      return;
+    }
+    Failure failure = failureCache.peek(rawColorCacheKey);
+    if (failure != null && System.currentTimeMillis() < failure.getRetryAt()) {
+      return;
+    }
+    CompletableFuture<StoredResult> pendingRefresh = new CompletableFuture<>();
+    if (pendingLoads.putIfAbsent(rawColorCacheKey, pendingRefresh) != null) {
+      return;
+    }
+
+    CompletableFuture<StoredResult> refresh;
+    try {
+      refresh = calculate(rawColorCacheKey, storedResult, new StageTimings());
+    } catch (RejectedExecutionException e) {
+      refresh = CompletableFuture.failedFuture(e);
+    }
+    complete(rawColorCacheKey, pendingRefresh, refresh.handle((refreshedResult, throwable) -> {
+      if (throwable == null) {
+        if (failure != null) {
+          failureCache.remove(rawColorCacheKey);
+        }
+        return refreshedResult;
+      }
+      Throwable cause = unwrap(throwable);
+      if (!(cause instanceof RejectedExecutionException)) {
+        failureCache.put(rawColorCacheKey, Failure.after(failure, cause, negativeCacheProperties));
+        colorFetchMetrics.countRefresh(ColorFetchMetrics.Refresh.FAILED);
+      }
+      return storedResult;
+    }));
+  }
+
+  /**
+   * Store the result of the given load and complete the pending load with it
+   */
+  private CompletableFuture<StoredResult> complete(ColorCacheKey rawColorCacheKey, CompletableFuture<StoredResult> pendingLoad,
+      CompletableFuture<StoredResult> load) {
+    load.whenComplete((storedResult, throwable) -> {
+      if (throwable == null) {
+        colorCache.put(rawColorCacheKey, storedResult);
+      }
+      pendingLoads.remove(rawColorCacheKey, pendingLoad);
+      if (throwable == null) {
+        pendingLoad.complete(storedResult);
       } else {
-        throw new IOException("Unable to open input stream to URL");
+        pendingLoad.completeExceptionally(unwrap(throwable));
+      }
+    });
+    return pendingLoad;
+  }
+
+  /**
+   * Load the result from the persistent tier, which doesn't keep the validators.
+   * It's therefore stored as if it was about to expire, so it's revalidated
+   * (and the validators are picked up) on its next hit.
+   */
+  private StoredResult loadFromDisk(ColorCacheKey rawColorCacheKey, StageTimings stageTimings) {
+    long startNanos = System.nanoTime();
+    try {
+      ColorFetchResult colorFetchResult = diskColorStore.load(rawColorCacheKey);
+      return colorFetchResult != null
+        ? StoredResult.of(colorFetchResult, System.currentTimeMillis() + refreshAheadMillis)
+        : null;
+    } finally {
+      recordStage(rawColorCacheKey.getStrategy(), stageTimings, StageTimings.Stage.DISK, startNanos);
+    }
+  }
+
+  /**
+   * Download and compute the result. If a previous result is given, the image
+   * is only downloaded if it changed since, otherwise the previous result is
+   * kept for another TTL.
+   */
+  private CompletableFuture<StoredResult> calculate(ColorCacheKey rawColorCacheKey, StoredResult previousResult, StageTimings stageTimings) {
+    // Refreshes yield to regular loads: they never wait for their turn and are simply tried again on the next hit
+    return fetchScheduler
+      .submit(hostOf(rawColorCacheKey), () -> fetchImage(rawColorCacheKey, previousResult, stageTimings), previousResult == null)
+      .thenCompose(fetchedImage -> {
+        if (previousResult != null) {
+          colorFetchMetrics.countRefresh(fetchedImage.isNotModified()
+            ? ColorFetchMetrics.Refresh.NOT_MODIFIED
+            : ColorFetchMetrics.Refresh.DOWNLOADED);
+        }
+        if (fetchedImage.isNotModified()) {
+          return CompletableFuture.completedFuture(previousResult.revalidated(
+            System.currentTimeMillis() + ttlMillis, fetchedImage.getETag(), fetchedImage.getLastModified()));
+        }
+        return compute(rawColorCacheKey, fetchedImage, stageTimings);
+      });
+  }
+
+  private CompletableFuture<StoredResult> compute(ColorCacheKey rawColorCacheKey, FetchedImage fetchedImage, StageTimings stageTimings) {
+    return computeAll(List.of(rawColorCacheKey), fetchedImage, stageTimings).get(0);
+  }
+
+  /**
+   * Compute the results of all given strategies from the same downloaded image.
+   * Strategies whose result is known for the content of the image are skipped,
+   * the image is decoded once for the remaining ones.
+   *
+   * @return the computations, in the same order as the given keys
+   */
+  private List<CompletableFuture<StoredResult>> computeAll(List<ColorCacheKey> rawColorCacheKeys, FetchedImage fetchedImage, StageTimings stageTimings) {
+    byte[] imageBytes = fetchedImage.getBytes();
+    long contentHash = ContentHash.hash(imageBytes);
+    List<CompletableFuture<ColorFetchResult>> computations = new ArrayList<>(rawColorCacheKeys.size());
+    List<ColorCacheKey> unknownRawKeys = new ArrayList<>();
+    for (ColorCacheKey rawColorCacheKey : rawColorCacheKeys) {
+      ColorFetchResult knownColorFetchResult = contentHashIndex.get(contentHash, rawColorCacheKey.getStrategy());
+      computations.add(knownColorFetchResult != null ? CompletableFuture.completedFuture(knownColorFetchResult) : null);
+      if (knownColorFetchResult == null) {
+        unknownRawKeys.add(rawColorCacheKey);
+      }
+    }
+
+    if (!unknownRawKeys.isEmpty()) {
+      long pixelBudget = unknownRawKeys.stream()
+        .mapToLong(rawColorCacheKey -> imageDecoder.getPixelBudget(rawColorCacheKey.getStrategy()))
+        .max()
+        .getAsLong();
+      CompletableFuture<BufferedImage> decoding = CompletableFuture
+        .supplyAsync(() -> decodeImage(unknownRawKeys.get(0).getStrategy(), imageBytes, pixelBudget, stageTimings), computeExecutor);
+      // Only registered once the decoding is accepted, as they're removed again when the computations complete
+      for (ColorCacheKey rawColorCacheKey : unknownRawKeys) {
+        computingImages.put(rawColorCacheKey, imageBytes);
+      }
+      for (int i = 0; i < rawColorCacheKeys.size(); i++) {
+        if (computations.get(i) != null) {
+          continue;
+        }
+        ColorCacheKey rawColorCacheKey = rawColorCacheKeys.get(i);
+        Function<BufferedImage, ColorFetchResult> quantization = bufferedImage -> quantizeImage(rawColorCacheKey.getStrategy(), bufferedImage, stageTimings);
+        computations.set(i, (unknownRawKeys.size() > 1 ? decoding.thenApplyAsync(quantization, computeExecutor) : decoding.thenApply(quantization))
+          .thenApply(colorFetchResult -> {
+            if (colorFetchResult != ColorFetchResult.FALLBACK) {
+              contentHashIndex.put(contentHash, rawColorCacheKey.getStrategy(), colorFetchResult);
+            }
+            return colorFetchResult;
+          })
+          .whenComplete((colorFetchResult, throwable) -> computingImages.remove(rawColorCacheKey, imageBytes)));
       }
-    } else {
-      throw new IOException("File size exceeds limit (10 MiB)");
+    }
+
+    long expiresAt = System.currentTimeMillis() + ttlMillis;
+    List<CompletableFuture<StoredResult>> storedResults = new ArrayList<>(rawColorCacheKeys.size());
+    for (int i = 0; i < rawColorCacheKeys.size(); i++) {
+      ColorCacheKey rawColorCacheKey = rawColorCacheKeys.get(i);
+      storedResults.add(computations.get(i)
+        .whenComplete((colorFetchResult, throwable) -> {
+          if (throwable == null && colorFetchResult != ColorFetchResult.FALLBACK) {
+            diskColorStore.storeAsync(rawColorCacheKey, colorFetchResult);
+          }
+        })
+        .thenApply(colorFetchResult -> StoredResult.of(colorFetchResult, expiresAt, fetchedImage.getETag(), fetchedImage.getLastModified())));
+    }
+    return storedResults;
+  }
+
+  private FetchedImage fetchImage(ColorCacheKey colorCacheKey, StoredResult previousResult, StageTimings stageTimings) {
+    long startNanos = System.nanoTime();
+    try {
+      String urlString = Objects.requireNonNull(colorCacheKey).getUrl();
+      if (previousResult == null) {
+        return imageFetcher.fetch(urlString, null, null);
+      }
+      return imageFetcher.fetch(urlString, previousResult.getETag(), previousResult.getLastModified());
+    } catch (IOException e) {
+      throw new CompletionException(e);
+    } finally {
+      recordStage(colorCacheKey.getStrategy(), stageTimings, StageTimings.Stage.FETCH, startNanos);
     }
   }
 
-  private BufferedImage getBufferedImage(URL url) throws IOException {
-    BufferedImage img = ImageIO.read(url);
-    if (img != null) {
-      return img;
+  /**
+   * @return the host the image is downloaded from, or an empty string for malformed URLs (which fail right away anyway)
+   */
+  private static String hostOf(ColorCacheKey colorCacheKey) {
+    try {
+      String host = new URI(colorCacheKey.getUrl()).getHost();
+      return host != null ? host.toLowerCase(Locale.ROOT) : "";
+    } catch (URISyntaxException e) {
+      return "";
     }
-    throw new IOException("Unable to parse image");
   }
 
-  private boolean isFileSizeWithinBounds(URL url) throws IOException {
-    HttpURLConnection conn = null;
+  private BufferedImage decodeImage(ColorCacheKey.Strategy strategy, byte[] imageBytes, long pixelBudget, StageTimings stageTimings) {
+    long startNanos = System.nanoTime();
+    try {
+      return imageDecoder.decode(imageBytes, pixelBudget);
+    } catch (IOException e) {
+      throw new CompletionException(e);
+    } finally {
+      recordStage(strategy, stageTimings, StageTimings.Stage.DECODE, startNanos);
+    }
+  }
+
+  /**
+   * Decode the image with the small approximate pixel budget and run the given strategies on it
+   */
+  private Map<ColorCacheKey.Strategy, ColorFetchResult> approximateImage(Set<ColorCacheKey.Strategy> strategies, byte[] imageBytes,
+      StageTimings stageTimings) {
+    long startNanos = System.nanoTime();
     try {
-      conn = (HttpURLConnection) url.openConnection();
-      conn.setRequestMethod("HEAD");
-      return conn.getContentLengthLong() < MAX_FILE_SIZE;
+      BufferedImage bufferedImage = imageDecoder.decode(imageBytes, approximatePixelBudget);
+      Map<ColorCacheKey.Strategy, ColorFetchResult> colorFetchResults = new EnumMap<>(ColorCacheKey.Strategy.class);
+      for (ColorCacheKey.Strategy strategy : strategies) {
+        colorFetchResults.put(strategy, getColorFetchResult(strategy, bufferedImage));
+      }
+      return colorFetchResults;
+    } catch (IOException e) {
+      throw new CompletionException(e);
     } finally {
-      if (conn != null) {
-        conn.disconnect();
+      for (ColorCacheKey.Strategy strategy : strategies) {
+        recordStage(strategy, stageTimings, StageTimings.Stage.APPROXIMATE, startNanos);
       }
     }
   }
 
+  private ColorFetchResult quantizeImage(ColorCacheKey.Strategy strategy, BufferedImage bufferedImage, StageTimings stageTimings) {
+    long startNanos = System.nanoTime();
+    try {
+      return getColorFetchResult(strategy, bufferedImage);
+    } catch (IOException e) {
+      throw new CompletionException(e);
+    } finally {
+      recordStage(strategy, stageTimings, StageTimings.Stage.QUANTIZE, startNanos);
+    }
+  }
+
+  private ColorFetchResult getColorFetchResult(ColorCacheKey.Strategy strategy, BufferedImage bufferedImage) throws IOException {
+    switch (strategy) {
+      case COLOR_THIEF:
+        return colorThiefColorProvider.getColorFetchResultFromBufferedImage(bufferedImage);
+      case ANDROID_PALETTE:
+        return androidPaletteColorProvider.getColorFetchResultFromBufferedImage(bufferedImage);
+      default:
+        throw new IllegalStateException("Unexpected value: " + strategy);
+    }
+  }
+
+  private void recordStage(ColorCacheKey.Strategy strategy, StageTimings stageTimings, StageTimings.Stage stage, long startNanos) {
+    long durationNanos = System.nanoTime() - startNanos;
+    stageTimings.record(stage, durationNanos);
+    colorFetchMetrics.recordStage(strategy, stage, durationNanos);
+  }
+
+  private void importSnapshot(Path path) {
+    if (!Files.exists(path)) {
+      return;
+    }
+    try (InputStream in = Files.newInputStream(path)) {
+      importSnapshot(in);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Unable to import cache snapshot from " + path, e);
+    }
+  }
+
+  private static ColorFetchResult normalize(ColorFetchResult rawColorFetchResult, float normalize) {
+    return Float.compare(normalize, 0.0f) == 0 ? rawColorFetchResult : ColorUtil.normalizeColorFetchResult(rawColorFetchResult, normalize);
+  }
+
+  private static Throwable unwrap(Throwable throwable) {
+    return throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable;
+  }
+
+  private static ThreadPoolExecutor createExecutor(String threadNamePrefix, int threads, int queueCapacity) {
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+      new ArrayBlockingQueue<>(queueCapacity),
+      new CustomizableThreadFactory(threadNamePrefix),
+      new ThreadPoolExecutor.AbortPolicy());
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  private static ScheduledThreadPoolExecutor createDeadlineExecutor() {
+    CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("color-deadline-");
+    threadFactory.setDaemon(true);
+    ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, threadFactory);
+    // Most deadlines are met, so their tasks shouldn't pile up in the queue until they'd have been due
+    executor.setRemoveOnCancelPolicy(true);
+    return executor;
+  }
+
   //////////////////
 
-  private ColorFetchResult getColorFetchResult(ColorCacheKey colorCacheKey) {
-    try {
-      String urlString = Objects.requireNonNull(colorCacheKey).getUrl();
-      URL url = openValidUrl(urlString);
-      BufferedImage bufferedImage = getBufferedImage(url);
-
-      ColorFetchResult colorFetchResult;
-      switch (colorCacheKey.getStrategy()) {
-        case COLOR_THIEF:
-          colorFetchResult = colorThiefColorProvider.getColorFetchResultFromBufferedImage(bufferedImage);
-          break;
-        case ANDROID_PALETTE:
-          colorFetchResult = androidPaletteColorProvider.getColorFetchResultFromBufferedImage(bufferedImage);
-          break;
-        default:
-          throw new IllegalStateException("Unexpected value: " + colorCacheKey.getStrategy());
-      }
-      return ColorUtil.normalizeColorFetchResult(colorFetchResult, colorCacheKey.getNormalize());
-    } catch (Exception e) {
-      return ColorFetchResult.FALLBACK;
+  private static class NormalizedResult {
+    private final long rawExpiresAt;
+    private final ColorFetchResult colorFetchResult;
+
+    private NormalizedResult(long rawExpiresAt, ColorFetchResult colorFetchResult) {
+      this.rawExpiresAt = rawExpiresAt;
+      this.colorFetchResult = colorFetchResult;
+    }
+
+    /**
+     * @return the expiry time of the raw result this one was derived from
+     */
+    long getRawExpiresAt() {
+      return rawExpiresAt;
+    }
+
+    ColorFetchResult getColorFetchResult() {
+      return colorFetchResult;
+    }
+  }
+
+  private static class Failure {
+    private final int consecutiveFailures;
+    private final long retryAt;
+    private final String cause;
+    private final String causeType;
+
+    private Failure(int consecutiveFailures, long retryAt, String cause, String causeType) {
+      this.consecutiveFailures = consecutiveFailures;
+      this.retryAt = retryAt;
+      this.cause = cause;
+      this.causeType = causeType;
+    }
+
+    /**
+     * Create the failure following the given previous one (if any), doubling
+     * the time until the next retry for every consecutive failure.
+     */
+    static Failure after(Failure previousFailure, Throwable cause, ColorFetchProperties.Negative negativeCacheProperties) {
+      int consecutiveFailures = previousFailure != null ? previousFailure.consecutiveFailures + 1 : 1;
+      long maxTtl = negativeCacheProperties.getMaxTtl().toMillis();
+      long ttl = Math.min(negativeCacheProperties.getInitialTtl().toMillis(), maxTtl);
+      for (int i = 1; i < consecutiveFailures && ttl < maxTtl; i++) {
+        ttl = Math.min(ttl * 2, maxTtl);
+      }
+      return new Failure(consecutiveFailures, System.currentTimeMillis() + ttl, String.valueOf(cause), cause.getClass().getSimpleName());
+    }
+
+    long getRetryAt() {
+      return retryAt;
+    }
+
+    String getCause() {
+      return cause;
+    }
+
+    /**
+     * @return the simple class name of the cause, for metric tags
+     */
+    String getCauseType() {
+      return causeType;
     }
   }
 }
@@ -0,0 +1,85 @@
+package de.selbi.colorfetch.cache;
+
+import java.util.Objects;
+
+import javax.annotation.PreDestroy;
+
+import org.cache2k.Cache;
+import org.cache2k.Cache2kBuilder;
+import org.springframework.stereotype.Component;
+
+import de.selbi.colorfetch.ColorFetchMetrics;
+import de.selbi.colorfetch.ColorFetchProperties;
+import de.selbi.colorfetch.data.ColorFetchResult;
+import de.selbi.colorfetch.engine.ContentCache;
+
+/**
+ * Secondary index from the content hash of an image file to its raw result.
+ * CDN URLs often point to the same bytes through different query strings or
+ * mirrors, so an unknown URL with known content can skip decoding and
+ * quantization entirely. As a {@link ContentCache}, it can also back a
+ * {@link de.selbi.colorfetch.engine.ColorFetchEngine}.
+ */
+@Component
+public class ContentHashIndex implements ContentCache {
+  private final Cache<ContentKey, ColorFetchResult> contentCache;
+
+  public ContentHashIndex(ColorFetchProperties colorFetchProperties, ColorFetchMetrics colorFetchMetrics) {
+    this.contentCache = Cache2kBuilder.of(ContentKey.class, ColorFetchResult.class)
+      .name("colorfetch-content-index")
+      .eternal(true)
+      .entryCapacity(colorFetchProperties.getCache().getContentIndexMaxEntries())
+      .build();
+    colorFetchMetrics.monitor(contentCache);
+  }
+
+  /**
+   * @param contentHash the hash of the image file (see {@link de.selbi.colorfetch.util.ContentHash})
+   * @param strategy the strategy
+   * @return the known raw result for the content, or null if there is none
+   */
+  @Override
+  public ColorFetchResult get(long contentHash, ColorCacheKey.Strategy strategy) {
+    return contentCache.peek(new ContentKey(contentHash, strategy));
+  }
+
+  /**
+   * @param contentHash the hash of the image file (see {@link de.selbi.colorfetch.util.ContentHash})
+   * @param strategy the strategy
+   * @param colorFetchResult the raw result
+   */
+  @Override
+  public void put(long contentHash, ColorCacheKey.Strategy strategy, ColorFetchResult colorFetchResult) {
+    contentCache.put(new ContentKey(contentHash, strategy), colorFetchResult);
+  }
+
+  @PreDestroy
+  public void close() {
+    contentCache.close();
+  }
+
+  private static final class ContentKey {
+    private final long contentHash;
+    private final ColorCacheKey.Strategy strategy;
+
+    private ContentKey(long contentHash, ColorCacheKey.Strategy strategy) {
+      this.contentHash = contentHash;
+      this.strategy = strategy;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o)
+        return true;
+      if (!(o instanceof ContentKey))
+        return false;
+      ContentKey that = (ContentKey) o;
+      return contentHash == that.contentHash && strategy == that.strategy;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(contentHash, strategy);
+    }
+  }
+}
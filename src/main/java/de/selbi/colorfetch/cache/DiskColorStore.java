@@ -0,0 +1,294 @@
+package de.selbi.colorfetch.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import de.selbi.colorfetch.ColorFetchProperties;
+import de.selbi.colorfetch.data.ColorFetchResult;
+
+/**
+ * Optional persistent tier below the in-memory cache, so that computed
+ * results survive restarts. The results are stored in an append-only file of
+ * compact records (see {@link ColorCacheCodec}). Only the file offsets are
+ * kept on the heap.
+ * <p>
+ * Reads happen on a cache miss. Writes are done asynchronously by a single
+ * writer thread, which also compacts the file once it exceeds the configured
+ * size limit. Compaction drops overwritten records and, if necessary, the
+ * oldest ones.
+ */
+@Component
+public class DiskColorStore {
+  private static final Logger LOGGER = LoggerFactory.getLogger(DiskColorStore.class);
+
+  private static final int FORMAT_HEADER = 0x43464431; // "CFD1"
+  private static final int HEADER_BYTES = Integer.BYTES;
+
+  private final ColorFetchProperties.Disk diskProperties;
+  private final Map<ColorCacheKey, Long> resultOffsets;
+  private final ReadWriteLock channelLock;
+  private final ThreadPoolExecutor writer;
+
+  private Path path;
+  private FileChannel channel;
+
+  public DiskColorStore(ColorFetchProperties colorFetchProperties) {
+    this.diskProperties = colorFetchProperties.getCache().getDisk();
+    this.resultOffsets = new ConcurrentHashMap<>();
+    this.channelLock = new ReentrantReadWriteLock();
+
+    if (diskProperties.isEnabled()) {
+      this.path = Paths.get(diskProperties.getPath());
+      try {
+        open();
+      } catch (IOException e) {
+        throw new UncheckedIOException("Unable to open persistent cache at " + path, e);
+      }
+      this.writer = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(diskProperties.getWriteQueueCapacity()),
+        runnable -> {
+          Thread thread = new Thread(runnable, "color-cache-disk-writer");
+          thread.setDaemon(true);
+          return thread;
+        },
+        new ThreadPoolExecutor.DiscardPolicy());
+    } else {
+      this.writer = null;
+    }
+  }
+
+  /**
+   * @return true if the persistent tier is configured
+   */
+  public boolean isEnabled() {
+    return writer != null;
+  }
+
+  /**
+   * @return the amount of results currently stored
+   */
+  public int size() {
+    return resultOffsets.size();
+  }
+
+  /**
+   * Read the stored result for the given raw cache key.
+   *
+   * @param colorCacheKey the raw cache key
+   * @return the stored result, or null if there is none (or it couldn't be read)
+   */
+  public ColorFetchResult load(ColorCacheKey colorCacheKey) {
+    if (!isEnabled()) {
+      return null;
+    }
+    channelLock.readLock().lock();
+    try {
+      Long resultOffset = resultOffsets.get(colorCacheKey);
+      return resultOffset != null ? readResult(resultOffset) : null;
+    } catch (IOException e) {
+      return null;
+    } finally {
+      channelLock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Queue the given result to be written. If the write queue is full, the
+   * result is silently dropped.
+   *
+   * @param colorCacheKey the raw cache key
+   * @param colorFetchResult the result
+   */
+  public void storeAsync(ColorCacheKey colorCacheKey, ColorFetchResult colorFetchResult) {
+    if (isEnabled()) {
+      writer.execute(() -> append(colorCacheKey, colorFetchResult));
+    }
+  }
+
+  @PreDestroy
+  public void close() throws IOException, InterruptedException {
+    if (isEnabled()) {
+      writer.shutdown();
+      writer.awaitTermination(10, TimeUnit.SECONDS);
+      channelLock.writeLock().lock();
+      try {
+        channel.force(true);
+        channel.close();
+      } finally {
+        channelLock.writeLock().unlock();
+      }
+    }
+  }
+
+  //////////////////
+
+  private void open() throws IOException {
+    Path parent = path.toAbsolutePath().getParent();
+    if (parent != null) {
+      Files.createDirectories(parent);
+    }
+    channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    if (!readHeader()) {
+      // Empty, foreign or outdated file, start over
+      channel.truncate(0);
+      ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).putInt(FORMAT_HEADER).flip();
+      writeFully(header, 0);
+      return;
+    }
+
+    long position = HEADER_BYTES;
+    DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel.position(position))));
+    byte[] resultBytes = new byte[ColorCacheCodec.RESULT_BYTES];
+    try {
+      while (true) {
+        ColorCacheKey colorCacheKey = ColorCacheCodec.readKey(in);
+        int keyBytes = ColorCacheCodec.keyBytes(ColorCacheCodec.encodeUrl(colorCacheKey));
+        in.readFully(resultBytes);
+        resultOffsets.put(colorCacheKey, position + keyBytes);
+        position += keyBytes + ColorCacheCodec.RESULT_BYTES;
+      }
+    } catch (EOFException e) {
+      // Drop any incomplete record at the end, e.g. from a crash in the middle of a write
+      channel.truncate(position);
+    } catch (IOException | IllegalArgumentException e) {
+      // A corrupt record can't be skipped, as its length is unknown, so it's dropped with everything after it
+      LOGGER.warn("Dropping the persistent cache from offset {} on, as its record is corrupt: {}", position, e.toString());
+      channel.truncate(position);
+    }
+  }
+
+  private boolean readHeader() throws IOException {
+    if (channel.size() < HEADER_BYTES) {
+      return false;
+    }
+    ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+    while (header.hasRemaining()) {
+      if (channel.read(header, header.position()) < 0) {
+        return false;
+      }
+    }
+    return header.getInt(0) == FORMAT_HEADER;
+  }
+
+  private ColorFetchResult readResult(long resultOffset) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(ColorCacheCodec.RESULT_BYTES);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, resultOffset + buffer.position()) < 0) {
+        throw new EOFException();
+      }
+    }
+    return ColorCacheCodec.readResult(new DataInputStream(new ByteArrayInputStream(buffer.array())));
+  }
+
+  private void writeFully(ByteBuffer buffer, long position) throws IOException {
+    while (buffer.hasRemaining()) {
+      channel.write(buffer, position + buffer.position());
+    }
+  }
+
+  /**
+   * Only ever called from the writer thread
+   */
+  private void append(ColorCacheKey colorCacheKey, ColorFetchResult colorFetchResult) {
+    try {
+      byte[] urlBytes = ColorCacheCodec.encodeUrl(colorCacheKey);
+      ByteArrayOutputStream record = new ByteArrayOutputStream(ColorCacheCodec.keyBytes(urlBytes) + ColorCacheCodec.RESULT_BYTES);
+      DataOutputStream out = new DataOutputStream(record);
+      ColorCacheCodec.writeKey(out, urlBytes, colorCacheKey);
+      ColorCacheCodec.writeResult(out, colorFetchResult);
+
+      long position = channel.size();
+      writeFully(ByteBuffer.wrap(record.toByteArray()), position);
+      resultOffsets.put(colorCacheKey, position + ColorCacheCodec.keyBytes(urlBytes));
+
+      if (channel.size() > diskProperties.getMaxBytes()) {
+        compact();
+      }
+    } catch (IOException e) {
+      // The persistent tier is best-effort only, the result is still in memory
+    }
+  }
+
+  /**
+   * Rewrite the file with only the latest record of each key. If those alone
+   * take up more than half of the size limit, the oldest ones are dropped
+   * too, so that compaction doesn't have to run again right away.
+   */
+  private void compact() throws IOException {
+    List<Map.Entry<ColorCacheKey, Long>> entries = new ArrayList<>(resultOffsets.entrySet());
+    entries.sort(Map.Entry.<ColorCacheKey, Long>comparingByValue(Comparator.reverseOrder()));
+
+    long targetBytes = diskProperties.getMaxBytes() / 2;
+    long keptBytes = HEADER_BYTES;
+    List<Map.Entry<ColorCacheKey, Long>> keptEntries = new ArrayList<>();
+    for (Map.Entry<ColorCacheKey, Long> entry : entries) {
+      keptBytes += ColorCacheCodec.keyBytes(ColorCacheCodec.encodeUrl(entry.getKey())) + ColorCacheCodec.RESULT_BYTES;
+      if (keptBytes > targetBytes) {
+        break;
+      }
+      keptEntries.add(entry);
+    }
+
+    Path compactedPath = path.resolveSibling(path.getFileName() + ".compact");
+    Map<ColorCacheKey, Long> compactedResultOffsets = new HashMap<>();
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(compactedPath)))) {
+      out.writeInt(FORMAT_HEADER);
+      long position = HEADER_BYTES;
+      for (int i = keptEntries.size() - 1; i >= 0; i--) {
+        ColorCacheKey colorCacheKey = keptEntries.get(i).getKey();
+        byte[] urlBytes = ColorCacheCodec.encodeUrl(colorCacheKey);
+        ColorCacheCodec.writeKey(out, urlBytes, colorCacheKey);
+        ColorCacheCodec.writeResult(out, readResult(keptEntries.get(i).getValue()));
+        position += ColorCacheCodec.keyBytes(urlBytes);
+        compactedResultOffsets.put(colorCacheKey, position);
+        position += ColorCacheCodec.RESULT_BYTES;
+      }
+    }
+
+    channelLock.writeLock().lock();
+    try {
+      channel.close();
+      try {
+        Files.move(compactedPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        resultOffsets.clear();
+        resultOffsets.putAll(compactedResultOffsets);
+      } finally {
+        channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+      }
+    } finally {
+      channelLock.writeLock().unlock();
+    }
+  }
+}
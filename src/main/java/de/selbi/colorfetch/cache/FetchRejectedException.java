@@ -0,0 +1,40 @@
+package de.selbi.colorfetch.cache;
+
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Thrown if a download couldn't be started because the limits of the
+ * {@link FetchScheduler} were reached. Like any other saturation, this isn't
+ * the image's fault and isn't remembered as failure.
+ */
+public class FetchRejectedException extends RejectedExecutionException {
+  private static final long serialVersionUID = 1L;
+
+  public enum Reason {
+    /**
+     * Too many downloads from the same host are running and waiting already
+     */
+    HOST_SATURATED,
+
+    /**
+     * Too many downloads are running and waiting already in total
+     */
+    SATURATED,
+
+    /**
+     * The download waited too long for its turn
+     */
+    TIMEOUT
+  }
+
+  private final Reason reason;
+
+  FetchRejectedException(Reason reason, String host) {
+    super("Download from " + host + " rejected (" + reason + ")");
+    this.reason = reason;
+  }
+
+  public Reason getReason() {
+    return reason;
+  }
+}
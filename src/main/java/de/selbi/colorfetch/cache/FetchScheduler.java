@@ -0,0 +1,242 @@
+package de.selbi.colorfetch.cache;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import de.selbi.colorfetch.ColorFetchMetrics;
+import de.selbi.colorfetch.ColorFetchProperties;
+
+/**
+ * Limits the downloads running at the same time, both per origin host and in
+ * total, so a spike of misses for images of one CDN doesn't open hundreds of
+ * connections to it (and get us rate-limited). Downloads beyond the limits
+ * wait in a queue per host for a limited time, and are rejected right away
+ * if that queue (or all queues together) is full. Waiting downloads of a host
+ * are started in order, and the hosts take turns whenever a download of any
+ * host finishes.
+ */
+class FetchScheduler {
+  private final Executor executor;
+  private final ColorFetchMetrics colorFetchMetrics;
+  private final int maxInFlight;
+  private final int maxInFlightPerHost;
+  private final int maxQueued;
+  private final int maxQueuedPerHost;
+  private final long maxQueueWaitMillis;
+
+  // All state is guarded by this
+  private final Map<String, Host> hosts;
+  private final Deque<Host> hostsWaitingForTurn;
+  private int inFlight;
+  private int queued;
+
+  FetchScheduler(Executor executor, ColorFetchProperties.Fetch fetchProperties, ColorFetchMetrics colorFetchMetrics) {
+    this.executor = executor;
+    this.colorFetchMetrics = colorFetchMetrics;
+    this.maxInFlight = fetchProperties.getThreads();
+    this.maxInFlightPerHost = fetchProperties.getMaxPerHost();
+    this.maxQueued = fetchProperties.getQueueCapacity();
+    this.maxQueuedPerHost = fetchProperties.getMaxQueuedPerHost();
+    this.maxQueueWaitMillis = fetchProperties.getMaxQueueWait().toMillis();
+    this.hosts = new HashMap<>();
+    this.hostsWaitingForTurn = new ArrayDeque<>();
+
+    colorFetchMetrics.monitorFetches(this, FetchScheduler::getInFlight, FetchScheduler::getQueued);
+  }
+
+  /**
+   * Run the given download once the limits allow it.
+   *
+   * @param host the origin host of the image
+   * @param fetch the download, run on the executor
+   * @param mayWait false to reject the download instead of queueing it (for background work, which isn't counted as rejection)
+   * @return the future of the download, which fails with a {@link FetchRejectedException} if it was rejected
+   */
+  <T> CompletableFuture<T> submit(String host, Supplier<T> fetch, boolean mayWait) {
+    Fetch<T> pendingFetch = new Fetch<>(fetch);
+    FetchRejectedException.Reason rejection = null;
+    synchronized (this) {
+      Host hostState = hosts.computeIfAbsent(host, Host::new);
+      if (hostState.inFlight < maxInFlightPerHost && inFlight < maxInFlight) {
+        start(hostState, pendingFetch);
+      } else if (hostState.queue.size() >= maxQueuedPerHost || (!mayWait && hostState.inFlight >= maxInFlightPerHost)) {
+        rejection = FetchRejectedException.Reason.HOST_SATURATED;
+      } else if (!mayWait || queued >= maxQueued) {
+        rejection = FetchRejectedException.Reason.SATURATED;
+      } else {
+        enqueue(hostState, pendingFetch);
+      }
+      if (rejection != null) {
+        removeIfIdle(hostState);
+      }
+    }
+    if (rejection != null) {
+      reject(pendingFetch, rejection, host, mayWait);
+    } else if (pendingFetch.host == null) {
+      CompletableFuture.delayedExecutor(maxQueueWaitMillis, TimeUnit.MILLISECONDS).execute(() -> expire(host, pendingFetch));
+    }
+    return pendingFetch.future;
+  }
+
+  synchronized int getInFlight() {
+    return inFlight;
+  }
+
+  synchronized int getQueued() {
+    return queued;
+  }
+
+  //////////////////
+
+  private void start(Host hostState, Fetch<?> pendingFetch) {
+    hostState.inFlight++;
+    inFlight++;
+    pendingFetch.host = hostState;
+    try {
+      executor.execute(() -> run(pendingFetch));
+    } catch (RejectedExecutionException e) {
+      hostState.inFlight--;
+      inFlight--;
+      removeIfIdle(hostState);
+      // Completed elsewhere, so the dependent stages don't run while holding the lock
+      CompletableFuture.runAsync(() -> pendingFetch.future.completeExceptionally(e));
+    }
+  }
+
+  private <T> void run(Fetch<T> pendingFetch) {
+    try {
+      pendingFetch.future.complete(pendingFetch.fetch.get());
+    } catch (Throwable e) {
+      pendingFetch.future.completeExceptionally(e);
+    } finally {
+      finish(pendingFetch.host);
+    }
+  }
+
+  private synchronized void finish(Host hostState) {
+    hostState.inFlight--;
+    inFlight--;
+    if (!hostState.queue.isEmpty()) {
+      waitForTurn(hostState);
+    }
+    // Hosts take turns for the free slots, so a single busy host can't keep the others waiting
+    while (inFlight < maxInFlight && !hostsWaitingForTurn.isEmpty()) {
+      Host nextHost = hostsWaitingForTurn.poll();
+      nextHost.waitingForTurn = false;
+      if (nextHost.inFlight < maxInFlightPerHost && !nextHost.queue.isEmpty()) {
+        start(nextHost, dequeue(nextHost));
+        if (!nextHost.queue.isEmpty()) {
+          waitForTurn(nextHost);
+        }
+      }
+      // Its waiting downloads may have expired in the meantime, which couldn't remove it while it was waiting for its turn
+      removeIfIdle(nextHost);
+    }
+    removeIfIdle(hostState);
+  }
+
+  private void expire(String host, Fetch<?> pendingFetch) {
+    synchronized (this) {
+      Host hostState = hosts.get(host);
+      if (hostState == null || !hostState.queue.remove(pendingFetch)) {
+        return;
+      }
+      queued--;
+      if (hostState.queue.isEmpty()) {
+        reportQueuedHosts();
+      }
+      removeIfIdle(hostState);
+    }
+    reject(pendingFetch, FetchRejectedException.Reason.TIMEOUT, host, true);
+  }
+
+  private void enqueue(Host hostState, Fetch<?> pendingFetch) {
+    hostState.queue.add(pendingFetch);
+    queued++;
+    if (hostState.inFlight < maxInFlightPerHost) {
+      // Only waiting for a free slot in total
+      waitForTurn(hostState);
+    }
+    if (hostState.queue.size() == 1) {
+      reportQueuedHosts();
+    }
+  }
+
+  private Fetch<?> dequeue(Host hostState) {
+    Fetch<?> pendingFetch = hostState.queue.poll();
+    queued--;
+    if (hostState.queue.isEmpty()) {
+      reportQueuedHosts();
+    }
+    return pendingFetch;
+  }
+
+  private void waitForTurn(Host hostState) {
+    if (!hostState.waitingForTurn) {
+      hostState.waitingForTurn = true;
+      hostsWaitingForTurn.add(hostState);
+    }
+  }
+
+  private void removeIfIdle(Host hostState) {
+    if (hostState.inFlight == 0 && hostState.queue.isEmpty() && !hostState.waitingForTurn) {
+      hosts.remove(hostState.name);
+    }
+  }
+
+  /**
+   * Expose the queue length of every host that has downloads waiting. Only
+   * called when a queue becomes empty or non-empty, so the gauges stay few.
+   */
+  private void reportQueuedHosts() {
+    List<Host> queuedHosts = new ArrayList<>();
+    for (Host hostState : hosts.values()) {
+      if (!hostState.queue.isEmpty()) {
+        queuedHosts.add(hostState);
+      }
+    }
+    colorFetchMetrics.monitorQueuedFetchesByHost(queuedHosts, hostState -> hostState.name, hostState -> hostState.queue.size());
+  }
+
+  private void reject(Fetch<?> pendingFetch, FetchRejectedException.Reason reason, String host, boolean counted) {
+    if (counted) {
+      // Background work that isn't allowed to wait is simply tried again later, so it's not shed load
+      colorFetchMetrics.countFetchRejection(reason);
+    }
+    pendingFetch.future.completeExceptionally(new FetchRejectedException(reason, host));
+  }
+
+  //////////////////
+
+  private static class Host {
+    private final String name;
+    private final Deque<Fetch<?>> queue;
+    private int inFlight;
+    private boolean waitingForTurn;
+
+    private Host(String name) {
+      this.name = name;
+      this.queue = new ArrayDeque<>();
+    }
+  }
+
+  private static class Fetch<T> {
+    private final Supplier<T> fetch;
+    private final CompletableFuture<T> future;
+    private Host host;
+
+    private Fetch(Supplier<T> fetch) {
+      this.fetch = fetch;
+      this.future = new CompletableFuture<>();
+    }
+  }
+}
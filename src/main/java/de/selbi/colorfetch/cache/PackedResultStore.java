@@ -0,0 +1,194 @@
+package de.selbi.colorfetch.cache;
+
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+
+import de.selbi.colorfetch.ColorFetchMetrics;
+
+/**
+ * Stores each result as a single packed long (see {@link ColorCacheCodec#packResult}),
+ * keyed by the 64-bit hash of its key instead of the key itself. Along with
+ * the expiry time, that's 24 bytes per result, so the capacity is set in bytes
+ * and can hold millions of results where the object cache holds thousands.
+ * <p>
+ * The table is set-associative: a key can only be stored in one bucket of a
+ * few slots (three cache lines), which makes lookups a short linear scan. If
+ * the bucket is full, an expired or else a random slot of it is replaced. The table can live
+ * off-heap, so it doesn't add to the heap or GC work at all. Reads are
+ * optimistic and only fall back to a lock if they overlapped with a write to
+ * the same stripe.
+ * <p>
+ * As the keys aren't kept, the stored results can't be listed. The
+ * validators of the images aren't kept either, so revalidating a result
+ * always downloads the image again.
+ */
+class PackedResultStore implements ResultStore {
+  private static final int SLOT_LONGS = 3; // key hash, packed result, expiry time
+  private static final int BUCKET_SLOTS = 8;
+  private static final int BUCKET_LONGS = BUCKET_SLOTS * SLOT_LONGS;
+  private static final int BUCKET_BYTES = BUCKET_LONGS * Long.BYTES;
+  private static final int MAX_BUCKETS = 1 << 23; // 1.5 GiB
+  private static final int MAX_STRIPES = 4096;
+  private static final long EMPTY = 0;
+
+  private final CoarseClock clock;
+  private final LongBuffer table;
+  private final int buckets;
+  private final StampedLock[] stripes;
+  private final int stripeMask;
+
+  private final LongAdder size;
+  private final LongAdder hits;
+  private final LongAdder misses;
+  private final LongAdder puts;
+  private final LongAdder evictions;
+
+  PackedResultStore(long maxBytes, boolean offHeap, CoarseClock clock, ColorFetchMetrics colorFetchMetrics) {
+    this.clock = clock;
+    this.buckets = (int) Math.min(MAX_BUCKETS, Math.max(1, maxBytes / BUCKET_BYTES));
+    this.table = offHeap
+      ? ByteBuffer.allocateDirect(buckets * BUCKET_BYTES).asLongBuffer()
+      : LongBuffer.allocate(buckets * BUCKET_LONGS);
+
+    int stripeCount = Math.min(Integer.highestOneBit(buckets), MAX_STRIPES);
+    this.stripes = new StampedLock[stripeCount];
+    for (int i = 0; i < stripeCount; i++) {
+      stripes[i] = new StampedLock();
+    }
+    this.stripeMask = stripeCount - 1;
+
+    this.size = new LongAdder();
+    this.hits = new LongAdder();
+    this.misses = new LongAdder();
+    this.puts = new LongAdder();
+    this.evictions = new LongAdder();
+
+    colorFetchMetrics.monitor("colorfetch-packed", this, size::sum, hits::sum, misses::sum, evictions::sum, puts::sum);
+  }
+
+  @Override
+  public StoredResult get(ColorCacheKey rawColorCacheKey) {
+    long keyHash = ColorCacheCodec.hashKey(rawColorCacheKey);
+    int bucket = bucket(keyHash);
+    int bucketOffset = bucket * BUCKET_LONGS;
+    StampedLock stripe = stripes[bucket & stripeMask];
+
+    long stamp = stripe.tryOptimisticRead();
+    int slotOffset = findSlot(bucketOffset, keyHash);
+    long packedResult = slotOffset >= 0 ? table.get(slotOffset + 1) : EMPTY;
+    long expiresAt = slotOffset >= 0 ? table.get(slotOffset + 2) : 0;
+    if (!stripe.validate(stamp)) {
+      stamp = stripe.readLock();
+      try {
+        slotOffset = findSlot(bucketOffset, keyHash);
+        packedResult = slotOffset >= 0 ? table.get(slotOffset + 1) : EMPTY;
+        expiresAt = slotOffset >= 0 ? table.get(slotOffset + 2) : 0;
+      } finally {
+        stripe.unlockRead(stamp);
+      }
+    }
+
+    if (slotOffset < 0 || expiresAt <= clock.millis()) {
+      misses.increment();
+      return null;
+    }
+    hits.increment();
+    return StoredResult.of(ColorCacheCodec.unpackResult(packedResult), expiresAt);
+  }
+
+  @Override
+  public void put(ColorCacheKey rawColorCacheKey, StoredResult storedResult) {
+    put(rawColorCacheKey, storedResult, true);
+  }
+
+  @Override
+  public void putIfAbsent(ColorCacheKey rawColorCacheKey, StoredResult storedResult) {
+    put(rawColorCacheKey, storedResult, false);
+  }
+
+  @Override
+  public boolean isIterable() {
+    return false;
+  }
+
+  @Override
+  public Iterable<Map.Entry<ColorCacheKey, StoredResult>> entries() {
+    throw new UnsupportedOperationException("The packed cache doesn't keep the keys of the results");
+  }
+
+  @Override
+  public void close() {
+    // The table is released by the garbage collector (even off-heap)
+  }
+
+  //////////////////
+
+  private void put(ColorCacheKey rawColorCacheKey, StoredResult storedResult, boolean replace) {
+    long keyHash = ColorCacheCodec.hashKey(rawColorCacheKey);
+    long packedResult = ColorCacheCodec.packResult(storedResult.getColorFetchResult());
+    int bucket = bucket(keyHash);
+    int bucketOffset = bucket * BUCKET_LONGS;
+    StampedLock stripe = stripes[bucket & stripeMask];
+
+    long stamp = stripe.writeLock();
+    try {
+      long now = clock.millis();
+      int slotOffset = findSlot(bucketOffset, keyHash);
+      if (slotOffset >= 0) {
+        if (!replace && table.get(slotOffset + 2) > now) {
+          return;
+        }
+      } else {
+        slotOffset = findSlot(bucketOffset, EMPTY);
+        if (slotOffset >= 0) {
+          size.increment();
+        } else {
+          slotOffset = findExpiredSlot(bucketOffset, now);
+          if (slotOffset < 0) {
+            slotOffset = bucketOffset + ThreadLocalRandom.current().nextInt(BUCKET_SLOTS) * SLOT_LONGS;
+          }
+          evictions.increment();
+        }
+        table.put(slotOffset, keyHash);
+      }
+      table.put(slotOffset + 1, packedResult);
+      table.put(slotOffset + 2, storedResult.getExpiresAt());
+      puts.increment();
+    } finally {
+      stripe.unlockWrite(stamp);
+    }
+  }
+
+  /**
+   * @return the offset of the slot with the given key hash in the bucket, or -1 if there is none
+   */
+  private int findSlot(int bucketOffset, long keyHash) {
+    for (int slotOffset = bucketOffset; slotOffset < bucketOffset + BUCKET_LONGS; slotOffset += SLOT_LONGS) {
+      if (table.get(slotOffset) == keyHash) {
+        return slotOffset;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @return the offset of the first expired slot in the bucket, or -1 if there is none
+   */
+  private int findExpiredSlot(int bucketOffset, long now) {
+    for (int slotOffset = bucketOffset; slotOffset < bucketOffset + BUCKET_LONGS; slotOffset += SLOT_LONGS) {
+      if (table.get(slotOffset + 2) <= now) {
+        return slotOffset;
+      }
+    }
+    return -1;
+  }
+
+  private int bucket(long keyHash) {
+    // Maps the upper half of the hash onto the buckets without a division, so any amount of buckets works
+    return (int) (((keyHash >>> 32) * buckets) >>> 32);
+  }
+}
@@ -0,0 +1,32 @@
+package de.selbi.colorfetch.cache;
+
+import java.util.Map;
+
+/**
+ * The in-memory storage of the raw (not normalized) results, keyed by URL and
+ * strategy. Results are dropped once they have expired.
+ */
+interface ResultStore {
+  /**
+   * @param rawColorCacheKey the raw cache key
+   * @return the stored result, or null if there is none or it has expired
+   */
+  StoredResult get(ColorCacheKey rawColorCacheKey);
+
+  void put(ColorCacheKey rawColorCacheKey, StoredResult storedResult);
+
+  void putIfAbsent(ColorCacheKey rawColorCacheKey, StoredResult storedResult);
+
+  /**
+   * @return true if the stored results can be listed along with their keys
+   */
+  boolean isIterable();
+
+  /**
+   * @return all stored results
+   * @throws UnsupportedOperationException if the store doesn't keep the keys (see {@link ResultStore#isIterable()})
+   */
+  Iterable<Map.Entry<ColorCacheKey, StoredResult>> entries();
+
+  void close();
+}
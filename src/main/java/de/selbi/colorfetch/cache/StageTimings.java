@@ -0,0 +1,57 @@
+package de.selbi.colorfetch.cache;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * The time spent in each stage while computing a single result. Stages that
+ * didn't run (e.g. the decoding when the content of the image was already
+ * known) have no time. If a stage ran several times in parallel (quantizing
+ * the same image for several strategies), the longest time is kept, as
+ * that's what the lookup waited for.
+ */
+public class StageTimings {
+  public enum Stage {
+    DISK,
+    FETCH,
+    DECODE,
+    QUANTIZE,
+    APPROXIMATE;
+
+    /**
+     * @return the name used for metric tags and the Server-Timing header
+     */
+    public String getName() {
+      return name().toLowerCase(Locale.ROOT);
+    }
+  }
+
+  private static final long NOT_RUN = -1;
+
+  // All stages are written before the load completes, which happens-before
+  // anyone reading the timings of the finished lookup
+  private final long[] nanos;
+
+  StageTimings() {
+    this.nanos = new long[Stage.values().length];
+    Arrays.fill(nanos, NOT_RUN);
+  }
+
+  synchronized void record(Stage stage, long durationNanos) {
+    nanos[stage.ordinal()] = Math.max(nanos[stage.ordinal()], durationNanos);
+  }
+
+  /**
+   * @return true if the given stage ran
+   */
+  public boolean hasRun(Stage stage) {
+    return nanos[stage.ordinal()] != NOT_RUN;
+  }
+
+  /**
+   * @return the time spent in the given stage in nanoseconds (negative if it didn't run)
+   */
+  public long getNanos(Stage stage) {
+    return nanos[stage.ordinal()];
+  }
+}
@@ -0,0 +1,62 @@
+package de.selbi.colorfetch.cache;
+
+import de.selbi.colorfetch.data.ColorFetchResult;
+
+/**
+ * A raw result as kept by a {@link ResultStore}: the result along with the
+ * time it expires and the validators of the image it was computed from, which
+ * are used to revalidate it with the origin before it expires.
+ */
+final class StoredResult {
+  private final ColorFetchResult colorFetchResult;
+  private final long expiresAt;
+  private final String eTag;
+  private final String lastModified;
+
+  private StoredResult(ColorFetchResult colorFetchResult, long expiresAt, String eTag, String lastModified) {
+    this.colorFetchResult = colorFetchResult;
+    this.expiresAt = expiresAt;
+    this.eTag = eTag;
+    this.lastModified = lastModified;
+  }
+
+  static StoredResult of(ColorFetchResult colorFetchResult, long expiresAt, String eTag, String lastModified) {
+    return new StoredResult(colorFetchResult, expiresAt, eTag, lastModified);
+  }
+
+  static StoredResult of(ColorFetchResult colorFetchResult, long expiresAt) {
+    return new StoredResult(colorFetchResult, expiresAt, null, null);
+  }
+
+  /**
+   * @return the same result, expiring at the given time and with the given validators
+   */
+  StoredResult revalidated(long expiresAt, String eTag, String lastModified) {
+    return new StoredResult(colorFetchResult, expiresAt, eTag, lastModified);
+  }
+
+  ColorFetchResult getColorFetchResult() {
+    return colorFetchResult;
+  }
+
+  /**
+   * @return the time this result expires, in milliseconds since the epoch
+   */
+  long getExpiresAt() {
+    return expiresAt;
+  }
+
+  /**
+   * @return the ETag of the image, or null if the origin didn't send one
+   */
+  String getETag() {
+    return eTag;
+  }
+
+  /**
+   * @return the Last-Modified date of the image, or null if the origin didn't send one
+   */
+  String getLastModified() {
+    return lastModified;
+  }
+}
@@ -0,0 +1,43 @@
+package de.selbi.colorfetch.data;
+
+/**
+ * A single image of a batch request, with the same options as a regular request.
+ */
+public class ColorBatchItem {
+  private String url;
+  private String strategy = "color_thief";
+  private float normalize = 0.0f;
+
+  public ColorBatchItem() {
+  }
+
+  public ColorBatchItem(String url, String strategy, float normalize) {
+    this.url = url;
+    this.strategy = strategy;
+    this.normalize = normalize;
+  }
+
+  public String getUrl() {
+    return url;
+  }
+
+  public void setUrl(String url) {
+    this.url = url;
+  }
+
+  public String getStrategy() {
+    return strategy;
+  }
+
+  public void setStrategy(String strategy) {
+    this.strategy = strategy;
+  }
+
+  public float getNormalize() {
+    return normalize;
+  }
+
+  public void setNormalize(float normalize) {
+    this.normalize = normalize;
+  }
+}
@@ -0,0 +1,80 @@
+package de.selbi.colorfetch.data;
+
+import java.util.Locale;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonValue;
+
+/**
+ * The result for a single image of a batch request. Items fail individually,
+ * so one bad URL doesn't fail the whole batch. Streamed results also carry
+ * their URL, as they aren't in the order of the request.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ColorBatchResult {
+  public enum Status {
+    /**
+     * The colors were determined successfully
+     */
+    OK,
+
+    /**
+     * The image couldn't be processed, the fallback colors are returned
+     */
+    FALLBACK,
+
+    /**
+     * The item itself was invalid, no colors are returned
+     */
+    ERROR;
+
+    @JsonValue
+    public String toJson() {
+      return name().toLowerCase(Locale.ROOT);
+    }
+  }
+
+  private final String url;
+  private final Status status;
+  private final ColorFetchResult result;
+  private final String error;
+
+  private ColorBatchResult(String url, Status status, ColorFetchResult result, String error) {
+    this.url = url;
+    this.status = status;
+    this.result = result;
+    this.error = error;
+  }
+
+  public static ColorBatchResult of(ColorFetchResult result) {
+    return new ColorBatchResult(null, Status.OK, result, null);
+  }
+
+  public static ColorBatchResult fallback(ColorFetchResult result) {
+    return new ColorBatchResult(null, Status.FALLBACK, result, null);
+  }
+
+  public static ColorBatchResult error(String error) {
+    return new ColorBatchResult(null, Status.ERROR, null, error);
+  }
+
+  public ColorBatchResult withUrl(String url) {
+    return new ColorBatchResult(url, status, result, error);
+  }
+
+  public String getUrl() {
+    return url;
+  }
+
+  public Status getStatus() {
+    return status;
+  }
+
+  public ColorFetchResult getResult() {
+    return result;
+  }
+
+  public String getError() {
+    return error;
+  }
+}
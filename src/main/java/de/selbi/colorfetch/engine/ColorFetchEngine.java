@@ -0,0 +1,186 @@
+package de.selbi.colorfetch.engine;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+
+import de.selbi.colorfetch.ColorFetchProperties;
+import de.selbi.colorfetch.cache.ColorCacheKey;
+import de.selbi.colorfetch.data.ColorFetchResult;
+import de.selbi.colorfetch.image.FileSizeLimitException;
+import de.selbi.colorfetch.image.ImageDecoder;
+import de.selbi.colorfetch.image.ImageFetcher;
+import de.selbi.colorfetch.image.LimitedInputStream;
+import de.selbi.colorfetch.provider.AndroidPaletteColorProvider;
+import de.selbi.colorfetch.provider.ColorThiefColorProvider;
+import de.selbi.colorfetch.util.ColorUtil;
+import de.selbi.colorfetch.util.ContentHash;
+
+/**
+ * Determines the colors of image files without the web service around it, so
+ * it can be embedded into other applications (e.g. batch workers) without
+ * starting Spring. It decodes and quantizes the images exactly like the
+ * service does, with the same options (see {@link ColorFetchProperties}):
+ * <pre>
+ * ColorFetchEngine engine = ColorFetchEngine.builder()
+ *     .contentCache(ContentCache.inMemory(10_000))
+ *     .build();
+ * ColorFetchResult colors = engine.getColors(Path.of("cover.jpg"), ColorCacheKey.Strategy.COLOR_THIEF, 0.0f);
+ * </pre>
+ * An engine is thread-safe and meant to be shared. The work is done on the
+ * calling thread.
+ */
+public final class ColorFetchEngine {
+  private final ImageDecoder imageDecoder;
+  private final ColorThiefColorProvider colorThiefColorProvider;
+  private final AndroidPaletteColorProvider androidPaletteColorProvider;
+  private final ContentCache contentCache;
+  private final long maxFileSize;
+
+  private ColorFetchEngine(Builder builder) {
+    this.imageDecoder = new ImageDecoder(builder.colorFetchProperties);
+    this.colorThiefColorProvider = new ColorThiefColorProvider(builder.colorFetchProperties);
+    this.androidPaletteColorProvider = new AndroidPaletteColorProvider(builder.colorFetchProperties);
+    this.contentCache = builder.contentCache;
+    this.maxFileSize = builder.maxFileSize;
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Get the colors of the given image file.
+   *
+   * @param image the image file
+   * @param strategy the strategy
+   * @param normalize the minimum brightness of the colors, from 0.0 (keep them as they are) to 1.0
+   * @return the colors (full white for fallback cases)
+   * @throws IOException if the image couldn't be parsed or is too large
+   * @throws IllegalArgumentException if normalize is out of range
+   */
+  public ColorFetchResult getColors(byte[] image, ColorCacheKey.Strategy strategy, float normalize) throws IOException {
+    checkFileSize(image.length);
+    return getColors(ContentHash.hash(image), pixelBudget -> imageDecoder.decode(image, pixelBudget), strategy, normalize);
+  }
+
+  /**
+   * Get the colors of the image file in the remaining bytes of the given
+   * buffer, which is read without copying it. Its position isn't changed.
+   *
+   * @see ColorFetchEngine#getColors(byte[], ColorCacheKey.Strategy, float)
+   */
+  public ColorFetchResult getColors(ByteBuffer image, ColorCacheKey.Strategy strategy, float normalize) throws IOException {
+    checkFileSize(image.remaining());
+    return getColors(ContentHash.hash(image), pixelBudget -> imageDecoder.decode(image, pixelBudget), strategy, normalize);
+  }
+
+  /**
+   * Get the colors of the image file read from the given stream, which is
+   * read until its end but not closed.
+   *
+   * @see ColorFetchEngine#getColors(byte[], ColorCacheKey.Strategy, float)
+   */
+  public ColorFetchResult getColors(InputStream image, ColorCacheKey.Strategy strategy, float normalize) throws IOException {
+    // The stream isn't closed (which LimitedInputStream would pass on), as it's the caller's
+    byte[] imageBytes = new LimitedInputStream(image, maxFileSize).readAllBytes();
+    return getColors(imageBytes, strategy, normalize);
+  }
+
+  /**
+   * Get the colors of the given image file, which is memory-mapped rather
+   * than read onto the heap.
+   *
+   * @see ColorFetchEngine#getColors(byte[], ColorCacheKey.Strategy, float)
+   */
+  public ColorFetchResult getColors(Path image, ColorCacheKey.Strategy strategy, float normalize) throws IOException {
+    try (FileChannel fileChannel = FileChannel.open(image, StandardOpenOption.READ)) {
+      long size = fileChannel.size();
+      checkFileSize(size);
+      // The mapping stays valid after closing the channel, until it's garbage collected
+      return getColors(fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, size), strategy, normalize);
+    }
+  }
+
+  //////////////////
+
+  private ColorFetchResult getColors(long contentHash, Decoding decoding, ColorCacheKey.Strategy strategy, float normalize) throws IOException {
+    if (!(normalize >= 0.0 && normalize <= 1.0)) {
+      throw new IllegalArgumentException("'normalize' must be between 0.0 and 1.0");
+    }
+    ColorFetchResult colorFetchResult = contentCache.get(contentHash, strategy);
+    if (colorFetchResult == null) {
+      colorFetchResult = quantize(decoding.decode(imageDecoder.getPixelBudget(strategy)), strategy);
+      if (colorFetchResult != ColorFetchResult.FALLBACK) {
+        contentCache.put(contentHash, strategy, colorFetchResult);
+      }
+    }
+    return Float.compare(normalize, 0.0f) == 0 ? colorFetchResult : ColorUtil.normalizeColorFetchResult(colorFetchResult, normalize);
+  }
+
+  private ColorFetchResult quantize(BufferedImage bufferedImage, ColorCacheKey.Strategy strategy) throws IOException {
+    switch (strategy) {
+      case COLOR_THIEF:
+        return colorThiefColorProvider.getColorFetchResultFromBufferedImage(bufferedImage);
+      case ANDROID_PALETTE:
+        return androidPaletteColorProvider.getColorFetchResultFromBufferedImage(bufferedImage);
+      default:
+        throw new IllegalStateException("Unexpected value: " + strategy);
+    }
+  }
+
+  private void checkFileSize(long size) throws FileSizeLimitException {
+    if (size > maxFileSize) {
+      throw new FileSizeLimitException(maxFileSize);
+    }
+  }
+
+  //////////////////
+
+  private interface Decoding {
+    BufferedImage decode(long pixelBudget) throws IOException;
+  }
+
+  public static final class Builder {
+    private ColorFetchProperties colorFetchProperties = new ColorFetchProperties();
+    private ContentCache contentCache = ContentCache.none();
+    private long maxFileSize = ImageFetcher.MAX_FILE_SIZE;
+
+    private Builder() {
+    }
+
+    /**
+     * The decode and provider options (<code>decode</code>, <code>compute</code>
+     * and <code>android-palette</code>); the defaults are the same as the service's
+     */
+    public Builder properties(ColorFetchProperties colorFetchProperties) {
+      this.colorFetchProperties = Objects.requireNonNull(colorFetchProperties);
+      return this;
+    }
+
+    /**
+     * The cache of the results by image content (none by default)
+     */
+    public Builder contentCache(ContentCache contentCache) {
+      this.contentCache = Objects.requireNonNull(contentCache);
+      return this;
+    }
+
+    /**
+     * The maximum size of an image file in bytes (10 MiB by default, like downloaded images)
+     */
+    public Builder maxFileSize(long maxFileSize) {
+      this.maxFileSize = maxFileSize;
+      return this;
+    }
+
+    public ColorFetchEngine build() {
+      return new ColorFetchEngine(this);
+    }
+  }
+}
@@ -0,0 +1,40 @@
+package de.selbi.colorfetch.engine;
+
+import de.selbi.colorfetch.cache.ColorCacheKey;
+import de.selbi.colorfetch.data.ColorFetchResult;
+
+/**
+ * Cache of the raw results of a {@link ColorFetchEngine}, keyed by the hash of
+ * the image file (see {@link de.selbi.colorfetch.util.ContentHash}) and the
+ * strategy. Implementations have to be thread-safe.
+ */
+public interface ContentCache {
+  /**
+   * @param contentHash the hash of the image file
+   * @param strategy the strategy
+   * @return the known raw result for the content, or null if there is none
+   */
+  ColorFetchResult get(long contentHash, ColorCacheKey.Strategy strategy);
+
+  /**
+   * @param contentHash the hash of the image file
+   * @param strategy the strategy
+   * @param colorFetchResult the raw result
+   */
+  void put(long contentHash, ColorCacheKey.Strategy strategy, ColorFetchResult colorFetchResult);
+
+  /**
+   * @return a cache that doesn't keep anything, so every image is processed
+   */
+  static ContentCache none() {
+    return NoContentCache.INSTANCE;
+  }
+
+  /**
+   * @param maxEntries the maximum number of results kept per strategy
+   * @return a cache that keeps the results in memory
+   */
+  static ContentCache inMemory(long maxEntries) {
+    return new InMemoryContentCache(maxEntries);
+  }
+}
@@ -0,0 +1,38 @@
+package de.selbi.colorfetch.engine;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import org.cache2k.Cache;
+import org.cache2k.Cache2kBuilder;
+
+import de.selbi.colorfetch.cache.ColorCacheKey;
+import de.selbi.colorfetch.data.ColorFetchResult;
+
+/**
+ * See {@link ContentCache#inMemory(long)}. Each strategy has its own cache, so
+ * the content hash alone is the key.
+ */
+final class InMemoryContentCache implements ContentCache {
+  private final Map<ColorCacheKey.Strategy, Cache<Long, ColorFetchResult>> caches;
+
+  InMemoryContentCache(long maxEntries) {
+    this.caches = new EnumMap<>(ColorCacheKey.Strategy.class);
+    for (ColorCacheKey.Strategy strategy : ColorCacheKey.Strategy.values()) {
+      caches.put(strategy, Cache2kBuilder.of(Long.class, ColorFetchResult.class)
+        .eternal(true)
+        .entryCapacity(maxEntries)
+        .build());
+    }
+  }
+
+  @Override
+  public ColorFetchResult get(long contentHash, ColorCacheKey.Strategy strategy) {
+    return caches.get(strategy).peek(contentHash);
+  }
+
+  @Override
+  public void put(long contentHash, ColorCacheKey.Strategy strategy, ColorFetchResult colorFetchResult) {
+    caches.get(strategy).put(contentHash, colorFetchResult);
+  }
+}
@@ -0,0 +1,24 @@
+package de.selbi.colorfetch.engine;
+
+import de.selbi.colorfetch.cache.ColorCacheKey;
+import de.selbi.colorfetch.data.ColorFetchResult;
+
+/**
+ * See {@link ContentCache#none()}
+ */
+final class NoContentCache implements ContentCache {
+  static final NoContentCache INSTANCE = new NoContentCache();
+
+  private NoContentCache() {
+  }
+
+  @Override
+  public ColorFetchResult get(long contentHash, ColorCacheKey.Strategy strategy) {
+    return null;
+  }
+
+  @Override
+  public void put(long contentHash, ColorCacheKey.Strategy strategy, ColorFetchResult colorFetchResult) {
+    // Nothing is kept
+  }
+}
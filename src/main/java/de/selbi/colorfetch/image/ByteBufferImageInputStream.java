@@ -0,0 +1,54 @@
+package de.selbi.colorfetch.image;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Objects;
+
+import javax.imageio.stream.ImageInputStreamImpl;
+
+/**
+ * An ImageInputStream over the remaining bytes of a ByteBuffer. Unlike a
+ * MemoryCacheImageInputStream, it doesn't cache anything, but reads and seeks
+ * directly in the buffer, so a memory-mapped file isn't copied onto the heap.
+ * The position of the given buffer isn't changed.
+ */
+class ByteBufferImageInputStream extends ImageInputStreamImpl {
+  private final ByteBuffer buffer;
+
+  ByteBufferImageInputStream(ByteBuffer buffer) {
+    this.buffer = buffer.slice();
+  }
+
+  @Override
+  public int read() throws IOException {
+    checkClosed();
+    bitOffset = 0;
+    if (streamPos >= buffer.limit()) {
+      return -1;
+    }
+    return buffer.get((int) streamPos++) & 0xFF;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    checkClosed();
+    Objects.checkFromIndexSize(off, len, b.length);
+    bitOffset = 0;
+    if (len == 0) {
+      return 0;
+    }
+    if (streamPos >= buffer.limit()) {
+      return -1;
+    }
+    int read = (int) Math.min(len, buffer.limit() - streamPos);
+    buffer.position((int) streamPos);
+    buffer.get(b, off, read);
+    streamPos += read;
+    return read;
+  }
+
+  @Override
+  public long length() {
+    return buffer.limit();
+  }
+}
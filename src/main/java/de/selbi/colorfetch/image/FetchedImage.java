@@ -0,0 +1,55 @@
+package de.selbi.colorfetch.image;
+
+/**
+ * The response of the origin for an image: either the raw image file, or the
+ * confirmation that the image didn't change since it was last fetched.
+ * Along with it come the validators of the origin (if it sent any), so the
+ * image can be revalidated later.
+ */
+public class FetchedImage {
+  private final byte[] bytes;
+  private final String eTag;
+  private final String lastModified;
+
+  private FetchedImage(byte[] bytes, String eTag, String lastModified) {
+    this.bytes = bytes;
+    this.eTag = eTag;
+    this.lastModified = lastModified;
+  }
+
+  public static FetchedImage of(byte[] bytes, String eTag, String lastModified) {
+    return new FetchedImage(bytes, eTag, lastModified);
+  }
+
+  public static FetchedImage notModified(String eTag, String lastModified) {
+    return new FetchedImage(null, eTag, lastModified);
+  }
+
+  /**
+   * @return true if the origin confirmed that the image didn't change (HTTP 304)
+   */
+  public boolean isNotModified() {
+    return bytes == null;
+  }
+
+  /**
+   * @return the raw image file (null if not modified)
+   */
+  public byte[] getBytes() {
+    return bytes;
+  }
+
+  /**
+   * @return the ETag header of the origin, or null if it didn't send one
+   */
+  public String getETag() {
+    return eTag;
+  }
+
+  /**
+   * @return the Last-Modified header of the origin, or null if it didn't send one
+   */
+  public String getLastModified() {
+    return lastModified;
+  }
+}
@@ -0,0 +1,15 @@
+package de.selbi.colorfetch.image;
+
+import java.io.IOException;
+
+/**
+ * Thrown if an image file is larger than allowed, either according to its
+ * declared length or while it's being read.
+ */
+public class FileSizeLimitException extends IOException {
+  private static final long serialVersionUID = 1L;
+
+  public FileSizeLimitException(long limit) {
+    super("File size exceeds limit (" + (limit >= 1 << 20 ? (limit >> 20) + " MiB" : limit + " bytes") + ")");
+  }
+}
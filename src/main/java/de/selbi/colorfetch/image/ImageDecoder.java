@@ -0,0 +1,131 @@
+package de.selbi.colorfetch.image;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import org.springframework.stereotype.Component;
+
+import de.selbi.colorfetch.ColorFetchProperties;
+import de.selbi.colorfetch.cache.ColorCacheKey;
+
+/**
+ * Decodes downloaded images into BufferedImages. None of the providers need
+ * the full resolution of an image, so the dimensions are read from the header
+ * first and large images are subsampled while decoding to stay within a pixel
+ * budget. That way, the full raster of a huge image is never allocated.
+ */
+@Component
+public class ImageDecoder {
+  private final ColorFetchProperties.Decode decodeProperties;
+
+  public ImageDecoder(ColorFetchProperties colorFetchProperties) {
+    this.decodeProperties = colorFetchProperties.getDecode();
+  }
+
+  /**
+   * Decode the given image bytes using the pixel budget of the given strategy.
+   *
+   * @param imageBytes the raw image file
+   * @param strategy the strategy the image will be used for
+   * @return the decoded (and possibly subsampled) image
+   * @throws IOException if the image couldn't be parsed or is too large
+   */
+  public BufferedImage decode(byte[] imageBytes, ColorCacheKey.Strategy strategy) throws IOException {
+    return decode(imageBytes, getPixelBudget(strategy));
+  }
+
+  /**
+   * Decode the given image bytes, subsampling the image so that it has roughly
+   * at most the given amount of pixels.
+   *
+   * @param imageBytes the raw image file
+   * @param pixelBudget the maximum amount of pixels of the decoded image
+   * @return the decoded (and possibly subsampled) image
+   * @throws IOException if the image couldn't be parsed or is too large
+   */
+  public BufferedImage decode(byte[] imageBytes, long pixelBudget) throws IOException {
+    return decode(ByteBuffer.wrap(imageBytes), pixelBudget);
+  }
+
+  /**
+   * Decode the remaining bytes of the given buffer, subsampling the image so
+   * that it has roughly at most the given amount of pixels. The decoder reads
+   * directly from the buffer without copying it, and the position of the
+   * buffer isn't changed.
+   *
+   * @param imageBuffer the raw image file, e.g. a memory-mapped file
+   * @param pixelBudget the maximum amount of pixels of the decoded image
+   * @return the decoded (and possibly subsampled) image
+   * @throws IOException if the image couldn't be parsed or is too large
+   */
+  public BufferedImage decode(ByteBuffer imageBuffer, long pixelBudget) throws IOException {
+    try (ImageInputStream imageInputStream = new ByteBufferImageInputStream(imageBuffer)) {
+      return decode(imageInputStream, pixelBudget);
+    }
+  }
+
+  /**
+   * @param strategy the strategy
+   * @return the configured pixel budget for images used with that strategy
+   */
+  public long getPixelBudget(ColorCacheKey.Strategy strategy) {
+    switch (strategy) {
+      case COLOR_THIEF:
+        return decodeProperties.getColorThiefPixelBudget();
+      case ANDROID_PALETTE:
+        return decodeProperties.getAndroidPalettePixelBudget();
+      default:
+        throw new IllegalStateException("Unexpected value: " + strategy);
+    }
+  }
+
+  //////////////////
+
+  private BufferedImage decode(ImageInputStream imageInputStream, long pixelBudget) throws IOException {
+    Iterator<ImageReader> imageReaders = ImageIO.getImageReaders(imageInputStream);
+    if (!imageReaders.hasNext()) {
+      throw new IOException("Unable to parse image");
+    }
+    ImageReader imageReader = imageReaders.next();
+    try {
+      imageReader.setInput(imageInputStream, true, true);
+      return read(imageReader, pixelBudget);
+    } finally {
+      imageReader.dispose();
+    }
+  }
+
+  private BufferedImage read(ImageReader imageReader, long pixelBudget) throws IOException {
+    int width = imageReader.getWidth(0);
+    int height = imageReader.getHeight(0);
+    long pixels = (long) width * height;
+    if (pixels > decodeProperties.getMaxPixels()) {
+      throw new IOException("Image dimensions exceed limit (" + decodeProperties.getMaxPixels() + " pixels)");
+    }
+
+    int subsampling = calculateSubsampling(pixels, pixelBudget);
+    ImageReadParam imageReadParam = imageReader.getDefaultReadParam();
+    if (subsampling > 1) {
+      imageReadParam.setSourceSubsampling(subsampling, subsampling, 0, 0);
+    }
+    BufferedImage img = imageReader.read(0, imageReadParam);
+    if (img != null) {
+      return img;
+    }
+    throw new IOException("Unable to parse image");
+  }
+
+  private int calculateSubsampling(long pixels, long pixelBudget) {
+    if (pixelBudget <= 0 || pixels <= pixelBudget) {
+      return 1;
+    }
+    return (int) Math.ceil(Math.sqrt((double) pixels / pixelBudget));
+  }
+}
@@ -0,0 +1,109 @@
+package de.selbi.colorfetch.image;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.Locale;
+import java.util.Set;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+
+import de.selbi.colorfetch.ColorFetchProperties;
+
+/**
+ * Downloads images from their origin. Everything is done with a single GET
+ * request: the status code, content type and size are all checked on the
+ * same response that is then streamed into memory, capped at
+ * {@link ImageFetcher#MAX_FILE_SIZE} bytes. Known images can be revalidated
+ * with a conditional GET, which doesn't transfer the image again if it
+ * didn't change.
+ */
+@Component
+public class ImageFetcher {
+  public static final long MAX_FILE_SIZE = 10 * (2 << 19);
+
+  /**
+   * Content types that aren't image/* but are still commonly used by CDNs and
+   * object stores to serve images.
+   */
+  private static final Set<String> GENERIC_CONTENT_TYPES = Set.of("application/octet-stream", "binary/octet-stream");
+
+  private final ColorFetchProperties.Fetch fetchProperties;
+
+  public ImageFetcher(ColorFetchProperties colorFetchProperties) {
+    this.fetchProperties = colorFetchProperties.getFetch();
+  }
+
+  /**
+   * Download the image at the given URL, unless it didn't change according to
+   * the given validators of an earlier download.
+   *
+   * @param url the image URL
+   * @param eTag the ETag of the earlier download (null to ignore)
+   * @param lastModified the Last-Modified date of the earlier download (null to ignore)
+   * @return the image, or {@link FetchedImage#notModified} if it didn't change
+   * @throws IOException if the URL is invalid or couldn't be opened, doesn't point to an image,
+   *                     or the file size exceeds the limit
+   */
+  public FetchedImage fetch(String url, String eTag, String lastModified) throws IOException {
+    URL parsedUrl = URI.create(url).toURL();
+    URLConnection connection = parsedUrl.openConnection();
+    if (!(connection instanceof HttpURLConnection)) {
+      throw new IOException("Unsupported protocol: " + parsedUrl.getProtocol());
+    }
+    HttpURLConnection urlConnection = (HttpURLConnection) connection;
+    urlConnection.setConnectTimeout((int) fetchProperties.getConnectTimeout().toMillis());
+    urlConnection.setReadTimeout((int) fetchProperties.getReadTimeout().toMillis());
+    if (eTag != null) {
+      urlConnection.setRequestProperty(HttpHeaders.IF_NONE_MATCH, eTag);
+    }
+    if (lastModified != null) {
+      urlConnection.setRequestProperty(HttpHeaders.IF_MODIFIED_SINCE, lastModified);
+    }
+    try {
+      int responseCode = urlConnection.getResponseCode();
+      if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED && (eTag != null || lastModified != null)) {
+        // The origin may send updated validators along with the 304
+        return FetchedImage.notModified(
+            headerOrDefault(urlConnection, HttpHeaders.ETAG, eTag),
+            headerOrDefault(urlConnection, HttpHeaders.LAST_MODIFIED, lastModified));
+      }
+      if (HttpURLConnection.HTTP_OK != responseCode) {
+        throw new IOException("Unable to open input stream to URL (HTTP " + responseCode + ")");
+      }
+      String contentType = urlConnection.getContentType();
+      if (!isImageContentType(contentType)) {
+        throw new IOException("URL doesn't point to an image (" + contentType + ")");
+      }
+      if (urlConnection.getContentLengthLong() > MAX_FILE_SIZE) {
+        throw new FileSizeLimitException(MAX_FILE_SIZE);
+      }
+      try (InputStream inputStream = new LimitedInputStream(urlConnection.getInputStream(), MAX_FILE_SIZE)) {
+        return FetchedImage.of(inputStream.readAllBytes(),
+            urlConnection.getHeaderField(HttpHeaders.ETAG),
+            urlConnection.getHeaderField(HttpHeaders.LAST_MODIFIED));
+      }
+    } catch (IOException e) {
+      // Only drop the connection on failure, successful ones are kept alive for reuse
+      urlConnection.disconnect();
+      throw e;
+    }
+  }
+
+  private String headerOrDefault(HttpURLConnection urlConnection, String name, String defaultValue) {
+    String value = urlConnection.getHeaderField(name);
+    return value != null ? value : defaultValue;
+  }
+
+  private boolean isImageContentType(String contentType) {
+    if (contentType == null) {
+      return true;
+    }
+    String mimeType = contentType.split(";", 2)[0].trim().toLowerCase(Locale.ROOT);
+    return mimeType.isEmpty() || mimeType.startsWith("image/") || GENERIC_CONTENT_TYPES.contains(mimeType);
+  }
+}
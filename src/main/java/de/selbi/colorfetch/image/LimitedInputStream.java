@@ -0,0 +1,58 @@
+package de.selbi.colorfetch.image;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An InputStream that counts the bytes read from the underlying stream and
+ * fails with a {@link FileSizeLimitException} as soon as more than the given
+ * limit has been read. This guards against origins and uploads that don't send
+ * a Content-Length (or send a wrong one).
+ */
+public class LimitedInputStream extends FilterInputStream {
+  private final long limit;
+  private long count;
+
+  public LimitedInputStream(InputStream in, long limit) {
+    super(in);
+    this.limit = limit;
+  }
+
+  @Override
+  public int read() throws IOException {
+    int b = super.read();
+    if (b >= 0) {
+      countBytes(1);
+    }
+    return b;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    int read = super.read(b, off, len);
+    if (read > 0) {
+      countBytes(read);
+    }
+    return read;
+  }
+
+  @Override
+  public long skip(long n) throws IOException {
+    long skipped = super.skip(n);
+    countBytes(skipped);
+    return skipped;
+  }
+
+  @Override
+  public boolean markSupported() {
+    return false;
+  }
+
+  private void countBytes(long n) throws IOException {
+    count += n;
+    if (count > limit) {
+      throw new FileSizeLimitException(limit);
+    }
+  }
+}
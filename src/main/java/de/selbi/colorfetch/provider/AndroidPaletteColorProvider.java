@@ -11,29 +11,50 @@ import com.trickl.palette.Palette;
 import com.trickl.palette.Palette.Swatch;
 import com.trickl.palette.Target;
 
+import de.selbi.colorfetch.ColorFetchProperties;
 import de.selbi.colorfetch.data.ColorFetchResult;
 import de.selbi.colorfetch.util.ColorUtil;
+import de.selbi.colorfetch.util.ImageSampler;
 
 /**
  * Implementation of the dominant color finding algorithm using a standalone
- * reimplementation of Android's Palette API. It is significantly slower in
- * comparison to {@link ColorThiefColorProvider}, but yields generally better
- * results, as it works with named palettes ("swatches") instead of just buckets
- * of pixels, which allows weighing more appropriate colors over others, even if
- * they theoretically have more pixels on an image (Vibrant over DarkMuted ones
- * for example).
+ * reimplementation of Android's Palette API. It yields generally better
+ * results than {@link ColorThiefColorProvider}, as it works with named palettes
+ * ("swatches") instead of just buckets of pixels, which allows weighing more
+ * appropriate colors over others, even if they theoretically have more pixels
+ * on an image (Vibrant over DarkMuted ones for example).
+ * <p>
+ * The palette only needs a small image, so the image is scaled down to the
+ * configured maximum area with a box filter first (which also yields the
+ * average brightness). The Palette API doesn't resize it again, as its own
+ * resize area is set to the same value. The target is to take no longer than
+ * {@link ColorThiefColorProvider} for the same image (compare both in the
+ * <code>ColorProviderBenchmark</code>).
  */
 @Component
 public class AndroidPaletteColorProvider implements ColorProvider {
   private static final double MIN_BRIGHTNESS = 0.2;
   private static final int MIN_POPULATION = 100;
 
+  private final int maxArea;
+  private final int maxColors;
+
+  public AndroidPaletteColorProvider(ColorFetchProperties colorFetchProperties) {
+    this.maxArea = colorFetchProperties.getAndroidPalette().getMaxArea();
+    this.maxColors = colorFetchProperties.getAndroidPalette().getMaxColors();
+  }
+
   @Override
   public ColorFetchResult getColorFetchResultFromBufferedImage(BufferedImage img) {
     try {
-      Palette palette = Palette.from(img).generate();
+      ImageSampler.DownscaledImage downscaledImage = ImageSampler.downscale(img, maxArea);
+      Palette palette = Palette.from(downscaledImage.getImage())
+          .resizeBitmapArea(maxArea)
+          .maximumColorCount(maxColors)
+          .generate();
       List<Color> bestSwatches = getBestSwatch(palette, false);
-      return ColorFetchResult.of(bestSwatches.get(0), bestSwatches.get(1), 0.5);
+      double averageBrightness = ColorUtil.calculateGammaCorrectedBrightness(downscaledImage.getAveragePerceivedBrightness());
+      return ColorFetchResult.of(bestSwatches.get(0), bestSwatches.get(1), averageBrightness);
     } catch (RuntimeException e) {
       // This happens very rarely with monochrome images due to a bug inside the implementation of the Android Palette API
       return ColorFetchResult.FALLBACK;
@@ -1,6 +1,5 @@
 package de.selbi.colorfetch.provider;
 
-import java.awt.Color;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.util.Comparator;
@@ -9,45 +8,70 @@ import java.util.stream.Collectors;
 
 import org.springframework.stereotype.Component;
 
-import de.androidpit.colorthief.ColorThief;
-import de.androidpit.colorthief.MMCQ.VBox;
+import de.selbi.colorfetch.ColorFetchProperties;
 import de.selbi.colorfetch.data.ColorFetchResult;
 import de.selbi.colorfetch.util.ColorUtil;
+import de.selbi.colorfetch.util.ImageSampler;
+import de.selbi.colorfetch.util.MedianCutQuantizer;
+import de.selbi.colorfetch.util.MedianCutQuantizer.ColorBox;
 
 /**
- * Implementation of the dominant color finding algorithm using ColorThief. This
+ * Implementation of the dominant color finding algorithm of ColorThief (see
+ * {@link MedianCutQuantizer}). This
  * implementation has been fine-tuned and tested with hundreds of album cover
  * arts. It's not always perfect, such as when dealing with very colorful images
  * that don't necessarily have one particular color stand out, but it should
  * still do a decent job.
+ * <p>
+ * The number of sampled pixels is kept roughly constant, regardless of the
+ * size of the image (see {@link ColorFetchProperties.Compute#getColorThiefSampledPixels()}).
  */
 @Component
 public class ColorThiefColorProvider implements ColorProvider {
   private static final int PALETTE_SAMPLE_SIZE = 10;
-  private static final int PALETTE_SAMPLE_QUALITY = 5;
   private static final double MIN_BRIGHTNESS = 0.075;
   private static final double MIN_COLORFULNESS = 0.1;
+  private static final int BRIGHTNESS_CALCULATION_STEP_DIVIDER = 20;
+
+  /**
+   * The population thresholds were tuned on 640x640 covers sampling every
+   * fifth pixel. For any other number of sampled pixels, they're scaled
+   * accordingly, so they stay the same share of the image.
+   */
+  private static final double REFERENCE_SAMPLED_PIXELS = 640 * 640 / 5;
   private static final int MIN_POPULATION = 1000;
   private static final int MIN_COLORED_PIXELS = 3000;
-  private static final int BRIGHTNESS_CALCULATION_STEP_DIVIDER = 20;
+
+  private final long parallelQuantizationMinPixels;
+  private final long sampledPixels;
+
+  public ColorThiefColorProvider(ColorFetchProperties colorFetchProperties) {
+    this.parallelQuantizationMinPixels = colorFetchProperties.getCompute().getParallelQuantizationMinPixels();
+    this.sampledPixels = Math.max(1, colorFetchProperties.getCompute().getColorThiefSampledPixels());
+  }
 
   @Override
   public ColorFetchResult getColorFetchResultFromBufferedImage(BufferedImage img) throws IOException {
-    List<VBox> vBoxes = ColorThief.getColorMap(img, PALETTE_SAMPLE_SIZE, PALETTE_SAMPLE_QUALITY, true).vboxes.stream()
-        .filter(this::isValidVbox)
-        .sorted(Comparator.comparingInt(this::calculateWeightedPopulation).reversed())
+    long pixels = (long) img.getWidth() * img.getHeight();
+    boolean parallel = pixels >= parallelQuantizationMinPixels;
+    int quality = calculateSampleQuality(pixels);
+    double thresholdScale = Math.ceil((double) pixels / quality) / REFERENCE_SAMPLED_PIXELS;
+    double minPopulation = MIN_POPULATION * thresholdScale;
+    List<ColorBox> colorBoxes = MedianCutQuantizer.quantize(img, PALETTE_SAMPLE_SIZE, quality, true, parallel).stream()
+        .filter(colorBox -> isValidColorBox(colorBox, minPopulation))
+        .sorted(Comparator.comparingInt(ColorBox::getWeightedPopulation).reversed())
         .collect(Collectors.toList());
 
     int totalPopulationOfColor = 0;
-    for (VBox vBox2 : vBoxes) {
-      totalPopulationOfColor += vBox2.count(false);
+    for (ColorBox colorBox : colorBoxes) {
+      totalPopulationOfColor += colorBox.getCount();
     }
-    if (totalPopulationOfColor < MIN_COLORED_PIXELS) {
-      vBoxes.clear();
+    if (totalPopulationOfColor < MIN_COLORED_PIXELS * thresholdScale) {
+      colorBoxes.clear();
     }
 
     double averageBrightness = calculateAvgImageBrightness(img);
-    if (vBoxes.isEmpty()) {
+    if (colorBoxes.isEmpty()) {
       // Grayscale image
       ColorFetchResult.RGB textColor = ColorFetchResult.RGB.DEFAULT_RGB;
       ColorFetchResult.RGB backgroundOverlay = ColorFetchResult.RGB.of(
@@ -55,17 +79,14 @@ public class ColorThiefColorProvider implements ColorProvider {
           (int) (textColor.getG() * averageBrightness),
           (int) (textColor.getB() * averageBrightness));
       return ColorFetchResult.of(textColor, backgroundOverlay, averageBrightness);
-    } else if (vBoxes.size() == 1) {
+    } else if (colorBoxes.size() == 1) {
       // Monochrome image
-      int[] pal = vBoxes.get(0).avg(false);
-      ColorFetchResult.RGB rgb = ColorFetchResult.RGB.of(pal[0], pal[1], pal[2]);
+      ColorFetchResult.RGB rgb = toRgb(colorBoxes.get(0));
       return ColorFetchResult.of(rgb, rgb, averageBrightness);
     } else {
       // Normal image (at least two colors)
-      int[] pal1 = vBoxes.get(0).avg(false);
-      int[] pal2 = vBoxes.get(1).avg(false);
-      ColorFetchResult.RGB rgb1 = ColorFetchResult.RGB.of(pal1[0], pal1[1], pal1[2]);
-      ColorFetchResult.RGB rgb2 = ColorFetchResult.RGB.of(pal2[0], pal2[1], pal2[2]);
+      ColorFetchResult.RGB rgb1 = toRgb(colorBoxes.get(0));
+      ColorFetchResult.RGB rgb2 = toRgb(colorBoxes.get(1));
       if (ColorUtil.calculatePerceivedBrightness(rgb1) > ColorUtil.calculatePerceivedBrightness(rgb2)) {
         return ColorFetchResult.of(rgb1, rgb2, averageBrightness);
       } else {
@@ -74,49 +95,26 @@ public class ColorThiefColorProvider implements ColorProvider {
     }
   }
 
-  private boolean isValidVbox(VBox vBox) {
-    int[] pal = vBox.avg(false);
-    int r = pal[0];
-    int g = pal[1];
-    int b = pal[2];
-
-    double brightness = ColorUtil.calculatePerceivedBrightness(ColorFetchResult.RGB.of(r, g, b));
-    int population = vBox.count(false);
-    double colorfulness = ColorUtil.calculateColorfulness(r, g, b);
-
-    return (population > MIN_POPULATION && brightness > MIN_BRIGHTNESS && colorfulness > MIN_COLORFULNESS);
+  /**
+   * @return the sampling stride that gets closest to the configured number of sampled pixels
+   */
+  private int calculateSampleQuality(long pixels) {
+    return (int) Math.max(1, Math.min(Integer.MAX_VALUE, Math.round((double) pixels / sampledPixels)));
   }
 
-  private int calculateWeightedPopulation(VBox vBox) {
-    int[] pal = vBox.avg(false);
-    int r = pal[0];
-    int g = pal[1];
-    int b = pal[2];
-    int population = vBox.count(false);
-    double brightness = ColorUtil.calculatePerceivedBrightness(ColorFetchResult.RGB.of(r, g, b));
-    return (int) (population * Math.pow(brightness, 2.0));
+  private boolean isValidColorBox(ColorBox colorBox, double minPopulation) {
+    return (colorBox.getCount() > minPopulation
+        && colorBox.getPerceivedBrightness() > MIN_BRIGHTNESS
+        && colorBox.getColorfulness() > MIN_COLORFULNESS);
   }
 
-  private double calculateAvgImageBrightness(BufferedImage img) {
-    final int sampleStepSize = Math.min(img.getWidth(), img.getHeight()) / BRIGHTNESS_CALCULATION_STEP_DIVIDER; // 32px for most images
-    long samples = 0; // will be 400 for a 640x640 image
-    double acc = 0; // will be a value between 0..1.0
-
-    for (int x = 0; x < img.getWidth(); x += img.getWidth() / sampleStepSize) {
-      for (int y = 0; y < img.getHeight(); y += img.getHeight() / sampleStepSize) {
-        acc += calcPerceivedBrightnessAtLocation(img, x, y);
-        samples++;
-      }
-    }
-
-    double avg = acc / (double) samples;
-
-    // Gamma correction, see: https://stackoverflow.com/a/16521343/3216060
-    return Math.pow(avg, 1 / 2.2) * 0.85;
+  private ColorFetchResult.RGB toRgb(ColorBox colorBox) {
+    return ColorFetchResult.RGB.of(colorBox.getRed(), colorBox.getGreen(), colorBox.getBlue());
   }
 
-  private double calcPerceivedBrightnessAtLocation(BufferedImage img, int x, int y) {
-    Color color = new Color(img.getRGB(x, y));
-    return ColorUtil.calculatePerceivedBrightness(ColorFetchResult.RGB.of(color));
+  private double calculateAvgImageBrightness(BufferedImage img) {
+    // Samples a grid of ~20x20 pixels (400 for a 640x640 image)
+    ImageSampler.ImageSample imageSample = ImageSampler.sample(img, BRIGHTNESS_CALCULATION_STEP_DIVIDER);
+    return ColorUtil.calculateGammaCorrectedBrightness(imageSample.getAveragePerceivedBrightness());
   }
 }
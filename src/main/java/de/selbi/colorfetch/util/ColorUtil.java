@@ -6,9 +6,60 @@ import de.selbi.colorfetch.data.ColorFetchResult;
 import de.selbi.colorfetch.data.ColorFetchResult.RGB;
 
 public class ColorUtil {
+  /**
+   * Precomputed weighted squares of each channel for the perceived brightness
+   */
+  private static final double[] PERCEIVED_RED = new double[256];
+  private static final double[] PERCEIVED_GREEN = new double[256];
+  private static final double[] PERCEIVED_BLUE = new double[256];
+
+  static {
+    for (int i = 0; i < 256; i++) {
+      double square = i * i;
+      PERCEIVED_RED[i] = 0.299 * square;
+      PERCEIVED_GREEN[i] = 0.587 * square;
+      PERCEIVED_BLUE[i] = 0.114 * square;
+    }
+  }
+
   private ColorUtil() {
   }
 
+  /**
+   * Pack the given channels into a single int, in the same layout as
+   * {@link java.awt.image.BufferedImage#getRGB(int, int)} (alpha is ignored).
+   *
+   * @param r red 0..255
+   * @param g green 0..255
+   * @param b blue 0..255
+   * @return the packed RGB value
+   */
+  public static int packRgb(int r, int g, int b) {
+    return (r << 16) | (g << 8) | b;
+  }
+
+  /**
+   * Get the colorfulness (saturation) of this color without any allocations.
+   * Same result as {@link ColorUtil#calculateColorfulness(int, int, int)}.
+   *
+   * @param rgb the packed RGB value (alpha is ignored)
+   * @return the colorfulness as double (range 0.0..1.0)
+   */
+  public static double calculatePackedColorfulness(int rgb) {
+    return calculateHsbSaturation((rgb >> 16) & 0xFF, (rgb >> 8) & 0xFF, rgb & 0xFF);
+  }
+
+  /**
+   * Calculate the perceived brightness of this color without any allocations.
+   * Same result as {@link ColorUtil#calculatePerceivedBrightness(RGB)}.
+   *
+   * @param rgb the packed RGB value (alpha is ignored)
+   * @return the rough perceived brightness 0.0..1.0
+   */
+  public static double calculatePackedPerceivedBrightness(int rgb) {
+    return calculatePerceivedBrightness((rgb >> 16) & 0xFF, (rgb >> 8) & 0xFF, rgb & 0xFF);
+  }
+
   /**
    * Convenience method for {@link ColorUtil#calculateBrightness(int, int, int)}
    *
@@ -28,7 +79,7 @@ public class ColorUtil {
    * @return the brightness as double (range 0.0..1.0)
    */
   public static double calculateBrightness(int r, int g, int b) {
-    return rgbToHsb(r, g, b)[2];
+    return calculateHsbBrightness(r, g, b);
   }
 
   /**
@@ -37,10 +88,29 @@ public class ColorUtil {
    * @param r red 0..255
    * @param g green 0..255
    * @param b blue 0..255
-   * @return the colorfulness as double (range 0.0..255.0)
+   * @return the colorfulness as double (range 0.0..1.0)
    */
   public static double calculateColorfulness(int r, int g, int b) {
-    return rgbToHsb(r, g, b)[1];
+    return calculateHsbSaturation(r, g, b);
+  }
+
+  /**
+   * The B of {@link Color#RGBtoHSB(int, int, int, float[])}, without the array
+   */
+  private static float calculateHsbBrightness(int r, int g, int b) {
+    return Math.max(Math.max(r, g), b) / 255.0f;
+  }
+
+  /**
+   * The S of {@link Color#RGBtoHSB(int, int, int, float[])}, without the array
+   */
+  private static float calculateHsbSaturation(int r, int g, int b) {
+    int cmax = Math.max(Math.max(r, g), b);
+    if (cmax == 0) {
+      return 0.0f;
+    }
+    int cmin = Math.min(Math.min(r, g), b);
+    return ((float) (cmax - cmin)) / ((float) cmax);
   }
 
   /**
@@ -91,22 +161,51 @@ public class ColorUtil {
    * @return the rough perceived brightness 0.0..1.0
    */
   public static double calculatePerceivedBrightness(RGB color) {
-    int r = color.getR();
-    int g = color.getG();
-    int b = color.getB();
-    return Math.sqrt(0.299 * Math.pow(r, 2) + 0.587 * Math.pow(g, 2) + 0.114 * Math.pow(b, 2)) / 255;
+    return calculatePerceivedBrightness(color.getR(), color.getG(), color.getB());
+  }
+
+  /**
+   * Calculate a rough perceived brightness for the human eye based on this color (e.g. we see green brighter than blue)
+   * Taken from: http://alienryderflex.com/hsp.html
+   * @param r red 0..255
+   * @param g green 0..255
+   * @param b blue 0..255
+   * @return the rough perceived brightness 0.0..1.0
+   */
+  public static double calculatePerceivedBrightness(int r, int g, int b) {
+    if (((r | g | b) & ~0xFF) != 0) {
+      // Out of range (such as the center of an empty color box), not covered by the lookup tables
+      return Math.sqrt(0.299 * (r * r) + 0.587 * (g * g) + 0.114 * (b * b)) / 255;
+    }
+    return Math.sqrt(PERCEIVED_RED[r] + PERCEIVED_GREEN[g] + PERCEIVED_BLUE[b]) / 255;
   }
 
   /**
-   * Convenience method to normalize all colors for readability
+   * Turn the average perceived brightness of an image into the
+   * averageBrightness of a result, using a gamma correction.
+   * See: https://stackoverflow.com/a/16521343/3216060
+   *
+   * @param averagePerceivedBrightness the average perceived brightness of the pixels (0.0..1.0)
+   * @return the gamma corrected brightness (0.0..0.85)
+   */
+  public static double calculateGammaCorrectedBrightness(double averagePerceivedBrightness) {
+    return Math.pow(averagePerceivedBrightness, 1 / 2.2) * 0.85;
+  }
+
+  /**
+   * Convenience method to normalize all colors for readability. The given
+   * result is left untouched, as it might be shared through a cache.
    *
    * @param colors the colors
    * @param minimumBrightness the optional minimum brightness
-   * @return the updated color
+   * @return a new, normalized copy of the colors (or the colors themselves if no normalization is needed)
    */
   public static ColorFetchResult normalizeColorFetchResult(ColorFetchResult colors, float minimumBrightness) {
-    colors.setPrimary(ColorUtil.normalize(colors.getPrimary(), minimumBrightness));
-    colors.setSecondary(ColorUtil.normalize(colors.getSecondary(), minimumBrightness));
+    if (minimumBrightness > 0) {
+      RGB primary = ColorUtil.normalize(colors.getPrimary(), minimumBrightness);
+      RGB secondary = ColorUtil.normalize(colors.getSecondary(), minimumBrightness);
+      return ColorFetchResult.of(primary, secondary, colors.getAverageBrightness());
+    }
     return colors;
   }
 }
@@ -0,0 +1,99 @@
+package de.selbi.colorfetch.util;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Fast non-cryptographic 64-bit hash (xxHash64) of file contents, used to
+ * recognize the same image behind different URLs.
+ */
+public class ContentHash {
+  private static final long PRIME64_1 = 0x9E3779B185EBCA87L;
+  private static final long PRIME64_2 = 0xC2B2AE3D27D4EB4FL;
+  private static final long PRIME64_3 = 0x165667B19E3779F9L;
+  private static final long PRIME64_4 = 0x85EBCA77C2B2AE63L;
+  private static final long PRIME64_5 = 0x27D4EB2F165667C5L;
+
+  private ContentHash() {
+  }
+
+  /**
+   * @param bytes the contents
+   * @return the xxHash64 of the contents (seed 0)
+   */
+  public static long hash(byte[] bytes) {
+    return hash(ByteBuffer.wrap(bytes));
+  }
+
+  /**
+   * Hash the remaining bytes of the given buffer. Its position isn't changed.
+   *
+   * @param buffer the contents
+   * @return the xxHash64 of the contents (seed 0)
+   */
+  public static long hash(ByteBuffer buffer) {
+    ByteBuffer in = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+    int length = in.remaining();
+    int offset = 0;
+    long h;
+
+    if (length >= 32) {
+      long v1 = PRIME64_1 + PRIME64_2;
+      long v2 = PRIME64_2;
+      long v3 = 0;
+      long v4 = -PRIME64_1;
+      int limit = length - 32;
+      do {
+        v1 = round(v1, in.getLong(offset));
+        v2 = round(v2, in.getLong(offset + 8));
+        v3 = round(v3, in.getLong(offset + 16));
+        v4 = round(v4, in.getLong(offset + 24));
+        offset += 32;
+      } while (offset <= limit);
+
+      h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+      h = mergeRound(h, v1);
+      h = mergeRound(h, v2);
+      h = mergeRound(h, v3);
+      h = mergeRound(h, v4);
+    } else {
+      h = PRIME64_5;
+    }
+
+    h += length;
+
+    while (offset + 8 <= length) {
+      h ^= round(0, in.getLong(offset));
+      h = Long.rotateLeft(h, 27) * PRIME64_1 + PRIME64_4;
+      offset += 8;
+    }
+    if (offset + 4 <= length) {
+      h ^= (in.getInt(offset) & 0xFFFFFFFFL) * PRIME64_1;
+      h = Long.rotateLeft(h, 23) * PRIME64_2 + PRIME64_3;
+      offset += 4;
+    }
+    while (offset < length) {
+      h ^= (in.get(offset) & 0xFFL) * PRIME64_5;
+      h = Long.rotateLeft(h, 11) * PRIME64_1;
+      offset++;
+    }
+
+    h ^= h >>> 33;
+    h *= PRIME64_2;
+    h ^= h >>> 29;
+    h *= PRIME64_3;
+    h ^= h >>> 32;
+    return h;
+  }
+
+  private static long round(long acc, long input) {
+    acc += input * PRIME64_2;
+    acc = Long.rotateLeft(acc, 31);
+    return acc * PRIME64_1;
+  }
+
+  private static long mergeRound(long acc, long val) {
+    acc ^= round(0, val);
+    return acc * PRIME64_1 + PRIME64_4;
+  }
+}
@@ -0,0 +1,152 @@
+package de.selbi.colorfetch.util;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/**
+ * Samples a coarse grid of pixels of an image to calculate its average
+ * perceived brightness, or scales it down while calculating the average
+ * perceived brightness of all pixels. The pixels are read directly from the
+ * raster where possible (see {@link PixelReader}).
+ */
+public class ImageSampler {
+  private ImageSampler() {
+  }
+
+  /**
+   * Sample the given image on a grid of roughly stepDivider x stepDivider
+   * pixels (relative to the shorter side). Images too small for that are
+   * sampled pixel by pixel.
+   *
+   * @param img the image
+   * @param stepDivider the divider of the shorter side to determine the amount of samples per axis
+   * @return the sample
+   */
+  public static ImageSample sample(BufferedImage img, int stepDivider) {
+    int width = img.getWidth();
+    int height = img.getHeight();
+    int samplesPerAxis = Math.min(width, height) / stepDivider;
+    int xStep = samplesPerAxis > 0 ? Math.max(1, width / samplesPerAxis) : 1;
+    int yStep = samplesPerAxis > 0 ? Math.max(1, height / samplesPerAxis) : 1;
+
+    PixelReader pixelReader = PixelReader.of(img);
+    long samples = 0;
+    double acc = 0;
+    for (int x = 0; x < width; x += xStep) {
+      for (int y = 0; y < height; y += yStep) {
+        acc += ColorUtil.calculatePackedPerceivedBrightness(pixelReader.getArgb(x, y));
+        samples++;
+      }
+    }
+    return new ImageSample(acc / samples);
+  }
+
+  /**
+   * Scale the given image down to roughly maxPixels pixels by averaging square
+   * blocks of pixels (a box filter), which keeps the proportions of the colors
+   * intact. The average perceived brightness is calculated in the same pass,
+   * from the averaged blocks. Images that are small enough already aren't
+   * copied.
+   *
+   * @param img the image
+   * @param maxPixels the maximum amount of pixels of the scaled image
+   * @return the scaled image
+   */
+  public static DownscaledImage downscale(BufferedImage img, long maxPixels) {
+    int width = img.getWidth();
+    int height = img.getHeight();
+    int blockSize = (int) Math.max(1, Math.ceil(Math.sqrt((double) width * height / Math.max(1, maxPixels))));
+    PixelReader pixelReader = PixelReader.of(img);
+    if (blockSize == 1) {
+      double acc = 0;
+      for (int y = 0; y < height; y++) {
+        for (int x = 0; x < width; x++) {
+          acc += ColorUtil.calculatePackedPerceivedBrightness(pixelReader.getArgb(x, y));
+        }
+      }
+      return new DownscaledImage(img, acc / ((long) width * height));
+    }
+
+    int blockWidth = Math.min(blockSize, width);
+    int blockHeight = Math.min(blockSize, height);
+    int scaledWidth = width / blockWidth;
+    int scaledHeight = height / blockHeight;
+    long blockPixels = (long) blockWidth * blockHeight;
+    boolean alpha = img.getColorModel().hasAlpha();
+    BufferedImage scaledImage = new BufferedImage(scaledWidth, scaledHeight, alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+
+    long[] sums = new long[scaledWidth * 4];
+    int[] scaledRow = new int[scaledWidth];
+    double acc = 0;
+    for (int scaledY = 0; scaledY < scaledHeight; scaledY++) {
+      Arrays.fill(sums, 0);
+      for (int y = scaledY * blockHeight; y < (scaledY + 1) * blockHeight; y++) {
+        for (int scaledX = 0, x = 0; scaledX < scaledWidth; scaledX++) {
+          int sumIndex = scaledX * 4;
+          for (int blockX = 0; blockX < blockWidth; blockX++, x++) {
+            int argb = pixelReader.getArgb(x, y);
+            sums[sumIndex] += (argb >> 16) & 0xFF;
+            sums[sumIndex + 1] += (argb >> 8) & 0xFF;
+            sums[sumIndex + 2] += argb & 0xFF;
+            if (alpha) {
+              sums[sumIndex + 3] += argb >>> 24;
+            }
+          }
+        }
+      }
+      for (int scaledX = 0; scaledX < scaledWidth; scaledX++) {
+        int sumIndex = scaledX * 4;
+        int rgb = ColorUtil.packRgb((int) (sums[sumIndex] / blockPixels), (int) (sums[sumIndex + 1] / blockPixels), (int) (sums[sumIndex + 2] / blockPixels));
+        acc += ColorUtil.calculatePackedPerceivedBrightness(rgb);
+        scaledRow[scaledX] = alpha ? (int) (sums[sumIndex + 3] / blockPixels) << 24 | rgb : rgb;
+      }
+      scaledImage.setRGB(0, scaledY, scaledWidth, 1, scaledRow, 0, scaledWidth);
+    }
+    return new DownscaledImage(scaledImage, acc / ((long) scaledWidth * scaledHeight));
+  }
+
+  /**
+   * The result of sampling an image
+   */
+  public static class ImageSample {
+    private final double averagePerceivedBrightness;
+
+    private ImageSample(double averagePerceivedBrightness) {
+      this.averagePerceivedBrightness = averagePerceivedBrightness;
+    }
+
+    /**
+     * @return the average perceived brightness of all samples (0.0..1.0, no gamma correction)
+     */
+    public double getAveragePerceivedBrightness() {
+      return averagePerceivedBrightness;
+    }
+  }
+
+  /**
+   * The result of scaling an image down
+   */
+  public static class DownscaledImage {
+    private final BufferedImage image;
+    private final double averagePerceivedBrightness;
+
+    private DownscaledImage(BufferedImage image, double averagePerceivedBrightness) {
+      this.image = image;
+      this.averagePerceivedBrightness = averagePerceivedBrightness;
+    }
+
+    /**
+     * @return the scaled image (or the original one, if it was small enough already)
+     */
+    public BufferedImage getImage() {
+      return image;
+    }
+
+    /**
+     * @return the average perceived brightness of the pixels (0.0..1.0, no gamma correction)
+     */
+    public double getAveragePerceivedBrightness() {
+      return averagePerceivedBrightness;
+    }
+  }
+}
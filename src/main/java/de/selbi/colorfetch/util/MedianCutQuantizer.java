@@ -0,0 +1,409 @@
+package de.selbi.colorfetch.util;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Modified median cut quantization (MMCQ) to find the dominant colors of an
+ * image. This is the algorithm of Color Thief, and the resulting boxes are the
+ * same (and in the same order) as those of
+ * {@code ColorThief.getColorMap(img, colorCount, quality, ignoreWhite)}.
+ * <p>
+ * Unlike the library, the pixels are read straight into a packed histogram
+ * (see {@link PixelReader}) instead of an array of pixel arrays, and each
+ * {@link ColorBox} calculates its statistics exactly once. For very large
+ * images, the histogram can be built in parallel stripes.
+ */
+public class MedianCutQuantizer {
+  private static final int SIGNIFICANT_BITS = 5;
+  private static final int RIGHT_SHIFT = 8 - SIGNIFICANT_BITS;
+  private static final int MULTIPLIER = 1 << RIGHT_SHIFT;
+  private static final int HISTOGRAM_SIZE = 1 << (3 * SIGNIFICANT_BITS);
+  private static final int BOX_LENGTH = 1 << SIGNIFICANT_BITS;
+  private static final double FRACTION_BY_POPULATION = 0.75;
+  private static final int MAX_ITERATIONS = 1000;
+  private static final int MIN_ALPHA = 125;
+  private static final int WHITE_THRESHOLD = 250;
+  private static final int STRIPE_PIXELS = 1 << 18;
+
+  private static final Comparator<ColorBox> COMPARATOR_COUNT = Comparator.comparingInt(ColorBox::getCount);
+  private static final Comparator<ColorBox> COMPARATOR_PRODUCT = (a, b) -> a.count == b.count
+    ? a.volume - b.volume
+    : Long.compare((long) a.count * a.volume, (long) b.count * b.volume);
+
+  private MedianCutQuantizer() {
+  }
+
+  /**
+   * Quantize the colors of the given image.
+   *
+   * @param img the image
+   * @param colorCount the maximum number of colors (2..256)
+   * @param quality only every n-th pixel is sampled (1 is the highest quality)
+   * @param ignoreWhite skip (almost) white pixels
+   * @param parallel build the histogram in parallel stripes on the common fork-join pool
+   * @return the color boxes, from the most to the least significant one (empty, if no pixels remained)
+   */
+  public static List<ColorBox> quantize(BufferedImage img, int colorCount, int quality, boolean ignoreWhite, boolean parallel) {
+    if (colorCount < 2 || colorCount > 256) {
+      throw new IllegalArgumentException("'colorCount' must be between 2 and 256");
+    }
+    if (quality < 1) {
+      throw new IllegalArgumentException("'quality' must be at least 1");
+    }
+
+    HistogramTask histogramTask = new HistogramTask(img, PixelReader.of(img), quality, ignoreWhite, 0, img.getHeight());
+    Histogram histogram = parallel ? ForkJoinPool.commonPool().invoke(histogramTask) : histogramTask.scan();
+    if (histogram.pixelCount == 0) {
+      return Collections.emptyList();
+    }
+
+    List<ColorBox> colorBoxes = new ArrayList<>();
+    colorBoxes.add(histogram.createRootBox());
+    iterate(colorBoxes, COMPARATOR_COUNT, (int) Math.ceil(FRACTION_BY_POPULATION * colorCount), histogram.counts);
+    colorBoxes.sort(COMPARATOR_PRODUCT);
+    if (colorCount > colorBoxes.size()) {
+      iterate(colorBoxes, COMPARATOR_PRODUCT, colorCount, histogram.counts);
+    }
+    Collections.reverse(colorBoxes);
+    return colorBoxes;
+  }
+
+  /**
+   * A box in the RGB color space (with 5 bits per channel) and the statistics
+   * of the pixels within it
+   */
+  public static final class ColorBox {
+    private final int r1;
+    private final int r2;
+    private final int g1;
+    private final int g2;
+    private final int b1;
+    private final int b2;
+    private final int count;
+    private final int volume;
+    private final int red;
+    private final int green;
+    private final int blue;
+    private final double perceivedBrightness;
+    private final double colorfulness;
+    private final int weightedPopulation;
+    private final int[][] slicePopulations;
+
+    private ColorBox(int r1, int r2, int g1, int g2, int b1, int b2, int[] histogram) {
+      this.r1 = r1;
+      this.r2 = r2;
+      this.g1 = g1;
+      this.g2 = g2;
+      this.b1 = b1;
+      this.b2 = b2;
+      this.volume = (r2 - r1 + 1) * (g2 - g1 + 1) * (b2 - b1 + 1);
+
+      // Population per value of each axis, needed to cut the box
+      this.slicePopulations = new int[3][BOX_LENGTH];
+      int total = 0;
+      long rSum = 0;
+      long gSum = 0;
+      long bSum = 0;
+      for (int r = r1; r <= r2; r++) {
+        int rPopulation = 0;
+        for (int g = g1; g <= g2; g++) {
+          int gPopulation = 0;
+          int index = getColorIndex(r, g, 0);
+          for (int b = b1; b <= b2; b++) {
+            int population = histogram[index + b];
+            gPopulation += population;
+            slicePopulations[2][b] += population;
+            bSum += (long) population * (2 * b + 1);
+          }
+          rPopulation += gPopulation;
+          slicePopulations[1][g] += gPopulation;
+          gSum += (long) gPopulation * (2 * g + 1);
+        }
+        total += rPopulation;
+        slicePopulations[0][r] += rPopulation;
+        rSum += (long) rPopulation * (2 * r + 1);
+      }
+      this.count = total;
+      if (total > 0) {
+        // The average of the bucket centers, (i + 0.5) * MULTIPLIER
+        this.red = (int) (Math.min(rSum * (MULTIPLIER / 2), Integer.MAX_VALUE) / total);
+        this.green = (int) (Math.min(gSum * (MULTIPLIER / 2), Integer.MAX_VALUE) / total);
+        this.blue = (int) (Math.min(bSum * (MULTIPLIER / 2), Integer.MAX_VALUE) / total);
+      } else {
+        this.red = MULTIPLIER * (r1 + r2 + 1) / 2;
+        this.green = MULTIPLIER * (g1 + g2 + 1) / 2;
+        this.blue = MULTIPLIER * (b1 + b2 + 1) / 2;
+      }
+      this.perceivedBrightness = ColorUtil.calculatePerceivedBrightness(red, green, blue);
+      this.colorfulness = ColorUtil.calculateColorfulness(red, green, blue);
+      this.weightedPopulation = (int) (count * Math.pow(perceivedBrightness, 2.0));
+    }
+
+    /**
+     * @return the number of sampled pixels within this box
+     */
+    public int getCount() {
+      return count;
+    }
+
+    /**
+     * @return the red channel of the average color (0..255)
+     */
+    public int getRed() {
+      return red;
+    }
+
+    /**
+     * @return the green channel of the average color (0..255)
+     */
+    public int getGreen() {
+      return green;
+    }
+
+    /**
+     * @return the blue channel of the average color (0..255)
+     */
+    public int getBlue() {
+      return blue;
+    }
+
+    /**
+     * @return the perceived brightness of the average color (0.0..1.0)
+     */
+    public double getPerceivedBrightness() {
+      return perceivedBrightness;
+    }
+
+    /**
+     * @return the colorfulness of the average color (0.0..1.0)
+     */
+    public double getColorfulness() {
+      return colorfulness;
+    }
+
+    /**
+     * @return the number of pixels weighted by the squared perceived brightness, favoring bright colors
+     */
+    public int getWeightedPopulation() {
+      return weightedPopulation;
+    }
+
+    private ColorBox withUpperBound(int axis, int upper, int[] histogram) {
+      return new ColorBox(r1, axis == 0 ? upper : r2, g1, axis == 1 ? upper : g2, b1, axis == 2 ? upper : b2, histogram);
+    }
+
+    private ColorBox withLowerBound(int axis, int lower, int[] histogram) {
+      return new ColorBox(axis == 0 ? lower : r1, r2, axis == 1 ? lower : g1, g2, axis == 2 ? lower : b1, b2, histogram);
+    }
+  }
+
+  //////////////////
+
+  private static int getColorIndex(int r, int g, int b) {
+    return (r << (2 * SIGNIFICANT_BITS)) + (g << SIGNIFICANT_BITS) + b;
+  }
+
+  private static void iterate(List<ColorBox> colorBoxes, Comparator<ColorBox> comparator, int target, int[] histogram) {
+    for (int i = 0; i < MAX_ITERATIONS; i++) {
+      ColorBox colorBox = colorBoxes.get(colorBoxes.size() - 1);
+      if (colorBox.count == 0) {
+        // The list is sorted, so every further iteration would end up here again
+        return;
+      }
+      colorBoxes.remove(colorBoxes.size() - 1);
+      ColorBox[] cut = medianCut(histogram, colorBox);
+      colorBoxes.add(cut[0]);
+      if (cut[1] == null) {
+        // Single pixel boxes can't be cut, the list is unchanged
+        return;
+      }
+      colorBoxes.add(cut[1]);
+      colorBoxes.sort(comparator);
+      if (colorBoxes.size() >= target) {
+        return;
+      }
+    }
+  }
+
+  private static ColorBox[] medianCut(int[] histogram, ColorBox colorBox) {
+    // Same as the median cut of Color Thief, including its rounding
+    if (colorBox.count == 1) {
+      return new ColorBox[]{colorBox, null};
+    }
+
+    int rw = colorBox.r2 - colorBox.r1 + 1;
+    int gw = colorBox.g2 - colorBox.g1 + 1;
+    int bw = colorBox.b2 - colorBox.b1 + 1;
+    int maxw = Math.max(Math.max(rw, gw), bw);
+    int axis = maxw == rw ? 0 : maxw == gw ? 1 : 2;
+
+    // Cumulative population along the longest axis, -1 outside of the box
+    int dim1 = axis == 0 ? colorBox.r1 : axis == 1 ? colorBox.g1 : colorBox.b1;
+    int dim2 = axis == 0 ? colorBox.r2 : axis == 1 ? colorBox.g2 : colorBox.b2;
+    int total = 0;
+    int[] partialSum = new int[BOX_LENGTH];
+    int[] lookaheadSum = new int[BOX_LENGTH];
+    Arrays.fill(partialSum, -1);
+    Arrays.fill(lookaheadSum, -1);
+    for (int i = dim1; i <= dim2; i++) {
+      total += colorBox.slicePopulations[axis][i];
+      partialSum[i] = total;
+    }
+    for (int i = 0; i < BOX_LENGTH; i++) {
+      if (partialSum[i] != -1) {
+        lookaheadSum[i] = total - partialSum[i];
+      }
+    }
+
+    for (int i = dim1; i <= dim2; i++) {
+      if (partialSum[i] > total / 2) {
+        int left = i - dim1;
+        int right = dim2 - i;
+        int d2 = left <= right
+          ? Math.min(dim2 - 1, i + right / 2)
+          : Math.max(dim1, (int) (i - 1 - left / 2.0));
+
+        // Avoid 0-count boxes
+        while (d2 < 0 || partialSum[d2] <= 0) {
+          d2++;
+        }
+        int count2 = lookaheadSum[d2];
+        while (count2 == 0 && d2 > 0 && partialSum[d2 - 1] > 0) {
+          count2 = lookaheadSum[--d2];
+        }
+        return new ColorBox[]{colorBox.withUpperBound(axis, d2, histogram), colorBox.withLowerBound(axis, d2 + 1, histogram)};
+      }
+    }
+    throw new IllegalStateException("Color box can't be cut");
+  }
+
+  /**
+   * Packed histogram of the sampled pixels, with 5 bits per channel. Besides
+   * the counts, this tracks the bounds of the root box exactly the way Color
+   * Thief does, which only considers a value for the upper bound if it isn't
+   * a new lower bound at the same time. That makes the upper bound depend on
+   * the order of the pixels, so every channel keeps the (at most 32) values
+   * that lowered the lower bound, to be able to merge stripes in order.
+   */
+  private static final class Histogram {
+    private final int[] counts = new int[HISTOGRAM_SIZE];
+    private final int[][] lowerBounds = new int[3][BOX_LENGTH];
+    private final int[] lowerBoundCounts = new int[3];
+    private final int[] upperBounds = new int[3];
+    private int pixelCount;
+
+    private void add(int r, int g, int b) {
+      counts[getColorIndex(r, g, b)]++;
+      pixelCount++;
+      trackBounds(0, r);
+      trackBounds(1, g);
+      trackBounds(2, b);
+    }
+
+    /**
+     * Merge the histogram of the pixels directly following the ones of this histogram
+     */
+    private void addAll(Histogram following) {
+      for (int i = 0; i < HISTOGRAM_SIZE; i++) {
+        counts[i] += following.counts[i];
+      }
+      pixelCount += following.pixelCount;
+      for (int channel = 0; channel < 3; channel++) {
+        for (int i = 0; i < following.lowerBoundCounts[channel]; i++) {
+          trackBounds(channel, following.lowerBounds[channel][i]);
+        }
+        upperBounds[channel] = Math.max(upperBounds[channel], following.upperBounds[channel]);
+      }
+    }
+
+    private void trackBounds(int channel, int value) {
+      int lowerBoundCount = lowerBoundCounts[channel];
+      if (lowerBoundCount == 0 || value < lowerBounds[channel][lowerBoundCount - 1]) {
+        lowerBounds[channel][lowerBoundCount] = value;
+        lowerBoundCounts[channel]++;
+      } else if (value > upperBounds[channel]) {
+        upperBounds[channel] = value;
+      }
+    }
+
+    private ColorBox createRootBox() {
+      return new ColorBox(
+        lowerBounds[0][lowerBoundCounts[0] - 1], upperBounds[0],
+        lowerBounds[1][lowerBoundCounts[1] - 1], upperBounds[1],
+        lowerBounds[2][lowerBoundCounts[2] - 1], upperBounds[2],
+        counts);
+    }
+  }
+
+  /**
+   * Builds the histogram of a stripe of rows, splitting it up further if it's
+   * too large. Only every n-th pixel (by index in row-major order) is sampled,
+   * so the result is the same as for a single pass over the whole image.
+   */
+  private static final class HistogramTask extends RecursiveTask<Histogram> {
+    private static final long serialVersionUID = 1L;
+
+    private final BufferedImage img;
+    private final PixelReader pixelReader;
+    private final int quality;
+    private final boolean ignoreWhite;
+    private final int rowStart;
+    private final int rowEnd;
+
+    private HistogramTask(BufferedImage img, PixelReader pixelReader, int quality, boolean ignoreWhite, int rowStart, int rowEnd) {
+      this.img = img;
+      this.pixelReader = pixelReader;
+      this.quality = quality;
+      this.ignoreWhite = ignoreWhite;
+      this.rowStart = rowStart;
+      this.rowEnd = rowEnd;
+    }
+
+    @Override
+    protected Histogram compute() {
+      int width = img.getWidth();
+      int rows = rowEnd - rowStart;
+      if (rows > 1 && (long) rows * width > STRIPE_PIXELS) {
+        int rowMiddle = rowStart + rows / 2;
+        HistogramTask first = new HistogramTask(img, pixelReader, quality, ignoreWhite, rowStart, rowMiddle);
+        HistogramTask second = new HistogramTask(img, pixelReader, quality, ignoreWhite, rowMiddle, rowEnd);
+        first.fork();
+        Histogram secondHistogram = second.compute();
+        Histogram histogram = first.join();
+        histogram.addAll(secondHistogram);
+        return histogram;
+      }
+      return scan();
+    }
+
+    private Histogram scan() {
+      int width = img.getWidth();
+      Histogram histogram = new Histogram();
+      long firstIndex = ((long) rowStart * width + quality - 1) / quality * quality;
+      int x = (int) (firstIndex % width);
+      int y = (int) (firstIndex / width);
+      while (y < rowEnd) {
+        int argb = pixelReader.getArgb(x, y);
+        int r = (argb >> 16) & 0xFF;
+        int g = (argb >> 8) & 0xFF;
+        int b = argb & 0xFF;
+        if ((argb >>> 24) >= MIN_ALPHA && !(ignoreWhite && r > WHITE_THRESHOLD && g > WHITE_THRESHOLD && b > WHITE_THRESHOLD)) {
+          histogram.add(r >> RIGHT_SHIFT, g >> RIGHT_SHIFT, b >> RIGHT_SHIFT);
+        }
+        x += quality;
+        while (x >= width) {
+          x -= width;
+          y++;
+        }
+      }
+      return histogram;
+    }
+  }
+}
@@ -0,0 +1,107 @@
+package de.selbi.colorfetch.util;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+
+/**
+ * Reads single pixels of an image as packed ARGB values, same as
+ * {@link BufferedImage#getRGB(int, int)}.
+ * <p>
+ * For the common image types, the pixels are read directly from the backing
+ * DataBuffer, which avoids the per-pixel ColorModel conversion of getRGB.
+ * Everything else (such as premultiplied alpha, indexed colors or non-sRGB
+ * color spaces) falls back to getRGB, so all image types yield the same
+ * values.
+ */
+@FunctionalInterface
+interface PixelReader {
+  int OPAQUE = 0xFF000000;
+
+  /**
+   * @return the pixel at the given location as packed ARGB value
+   */
+  int getArgb(int x, int y);
+
+  /**
+   * Create the fastest reader for the given image
+   */
+  static PixelReader of(BufferedImage img) {
+    Raster raster = img.getRaster();
+    SampleModel sampleModel = raster.getSampleModel();
+    DataBuffer dataBuffer = raster.getDataBuffer();
+    int translateX = raster.getSampleModelTranslateX();
+    int translateY = raster.getSampleModelTranslateY();
+
+    switch (img.getType()) {
+      case BufferedImage.TYPE_INT_RGB:
+      case BufferedImage.TYPE_INT_ARGB:
+      case BufferedImage.TYPE_INT_BGR:
+        if (dataBuffer instanceof DataBufferInt && sampleModel instanceof SinglePixelPackedSampleModel) {
+          int[] data = ((DataBufferInt) dataBuffer).getData();
+          int offset = dataBuffer.getOffset();
+          int scanlineStride = ((SinglePixelPackedSampleModel) sampleModel).getScanlineStride();
+          if (img.getType() == BufferedImage.TYPE_INT_BGR) {
+            return (x, y) -> OPAQUE | Integer.reverseBytes(data[offset + (y - translateY) * scanlineStride + (x - translateX)]) >>> 8;
+          } else if (img.getType() == BufferedImage.TYPE_INT_RGB) {
+            return (x, y) -> OPAQUE | data[offset + (y - translateY) * scanlineStride + (x - translateX)];
+          }
+          return (x, y) -> data[offset + (y - translateY) * scanlineStride + (x - translateX)];
+        }
+        break;
+      default:
+        if (isInterleavedSrgbBytes(img, dataBuffer, sampleModel)) {
+          byte[] data = ((DataBufferByte) dataBuffer).getData();
+          ComponentSampleModel componentSampleModel = (ComponentSampleModel) sampleModel;
+          int[] bandOffsets = componentSampleModel.getBandOffsets();
+          int offset = dataBuffer.getOffset();
+          int pixelStride = componentSampleModel.getPixelStride();
+          int scanlineStride = componentSampleModel.getScanlineStride();
+          int redOffset = bandOffsets[0];
+          int greenOffset = bandOffsets[1];
+          int blueOffset = bandOffsets[2];
+          if (img.getColorModel().hasAlpha()) {
+            int alphaOffset = bandOffsets[3];
+            return (x, y) -> {
+              int index = offset + (y - translateY) * scanlineStride + (x - translateX) * pixelStride;
+              return (data[index + alphaOffset] & 0xFF) << 24
+                | ColorUtil.packRgb(data[index + redOffset] & 0xFF, data[index + greenOffset] & 0xFF, data[index + blueOffset] & 0xFF);
+            };
+          }
+          return (x, y) -> {
+            int index = offset + (y - translateY) * scanlineStride + (x - translateX) * pixelStride;
+            return OPAQUE | ColorUtil.packRgb(data[index + redOffset] & 0xFF, data[index + greenOffset] & 0xFF, data[index + blueOffset] & 0xFF);
+          };
+        }
+        break;
+    }
+    return img::getRGB;
+  }
+
+  /**
+   * True for 8-bit interleaved RGB(A) byte rasters without premultiplied
+   * alpha, such as TYPE_3BYTE_BGR, TYPE_4BYTE_ABGR and most decoded PNGs
+   */
+  private static boolean isInterleavedSrgbBytes(BufferedImage img, DataBuffer dataBuffer, SampleModel sampleModel) {
+    ColorModel colorModel = img.getColorModel();
+    if (!(dataBuffer instanceof DataBufferByte) || !(sampleModel instanceof ComponentSampleModel)) {
+      return false;
+    }
+    if (!colorModel.getColorSpace().isCS_sRGB() || colorModel.isAlphaPremultiplied() || colorModel.getNumColorComponents() != 3) {
+      return false;
+    }
+    for (int sampleSize : sampleModel.getSampleSize()) {
+      if (sampleSize != 8) {
+        return false;
+      }
+    }
+    return dataBuffer.getNumBanks() == 1 && colorModel.getClass() == ComponentColorModel.class;
+  }
+}
@@ -0,0 +1,128 @@
+package de.selbi.colorfetch.benchmark;
+
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+/**
+ * The images used by the benchmarks and the tests. The synthetic ones are generated with a
+ * fixed seed, so they are the same on every run:
+ * <ul>
+ *   <li>{@code gradient}: a smooth diagonal gradient between two colors</li>
+ *   <li>{@code shapes}: flat colored shapes on a dark background, similar to graphic album covers</li>
+ *   <li>{@code noise}: random colors in every pixel, the worst case for the histograms</li>
+ *   <li>{@code grayscale}: gray shapes on a gray gradient, which takes the grayscale path</li>
+ * </ul>
+ * Any other name is read as a path to an image file, so real-world images can
+ * be benchmarked with e.g. {@code -PbenchmarkImages=/path/to/cover.jpg}. No
+ * real-world images are bundled, as album covers (the typical input) can't be
+ * redistributed with the repository.
+ */
+public final class BenchmarkImages {
+  private static final long SEED = 182;
+
+  private BenchmarkImages() {
+  }
+
+  /**
+   * Create (or read) the given image, scaled so that its longer side has the given size.
+   * The result is a TYPE_3BYTE_BGR image, same as a decoded JPEG.
+   */
+  public static BufferedImage create(String image, int size) throws IOException {
+    return create(image, size, SEED);
+  }
+
+  /**
+   * Same as {@link BenchmarkImages#create(String, int)}, with another seed for
+   * the random shapes and noise, so several variants of an image can be created.
+   */
+  public static BufferedImage create(String image, int size, long seed) throws IOException {
+    Random random = new Random(seed);
+    BufferedImage img = new BufferedImage(size, size, BufferedImage.TYPE_3BYTE_BGR);
+    Graphics2D g = img.createGraphics();
+    try {
+      switch (image) {
+        case "gradient":
+          g.setPaint(new GradientPaint(0, 0, new Color(0x1D3557), size, size, new Color(0xE63946)));
+          g.fillRect(0, 0, size, size);
+          return img;
+        case "shapes":
+          g.setColor(new Color(0x14141A));
+          g.fillRect(0, 0, size, size);
+          drawShapes(g, random, size, false);
+          return img;
+        case "grayscale":
+          g.setPaint(new GradientPaint(0, 0, Color.DARK_GRAY, size, size, Color.LIGHT_GRAY));
+          g.fillRect(0, 0, size, size);
+          drawShapes(g, random, size, true);
+          return img;
+        case "noise":
+          for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+              img.setRGB(x, y, random.nextInt(0x1000000));
+            }
+          }
+          return img;
+        default:
+          return readScaled(new File(image), size);
+      }
+    } finally {
+      g.dispose();
+    }
+  }
+
+  /**
+   * @return the image encoded as JPEG
+   */
+  public static byte[] encodeJpeg(BufferedImage img) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ImageIO.write(img, "jpg", out);
+    return out.toByteArray();
+  }
+
+  //////////////////
+
+  private static void drawShapes(Graphics2D g, Random random, int size, boolean gray) {
+    g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+    for (int i = 0; i < 12; i++) {
+      int value = random.nextInt(256);
+      g.setColor(gray ? new Color(value, value, value) : Color.getHSBColor(random.nextFloat(), 0.4f + random.nextFloat() * 0.6f, 0.3f + random.nextFloat() * 0.7f));
+      int x = random.nextInt(size);
+      int y = random.nextInt(size);
+      int w = size / 8 + random.nextInt(size / 2 + 1);
+      int h = size / 8 + random.nextInt(size / 2 + 1);
+      if (random.nextBoolean()) {
+        g.fillOval(x - w / 2, y - h / 2, w, h);
+      } else {
+        g.fillRect(x - w / 2, y - h / 2, w, h);
+      }
+    }
+  }
+
+  private static BufferedImage readScaled(File file, int size) throws IOException {
+    BufferedImage original = ImageIO.read(file);
+    if (original == null) {
+      throw new IOException("Unknown synthetic image or unreadable file: " + file);
+    }
+    double scale = (double) size / Math.max(original.getWidth(), original.getHeight());
+    int width = Math.max(1, (int) Math.round(original.getWidth() * scale));
+    int height = Math.max(1, (int) Math.round(original.getHeight() * scale));
+    BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+    Graphics2D g = img.createGraphics();
+    try {
+      g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+      g.drawImage(original, 0, 0, width, height, null);
+    } finally {
+      g.dispose();
+    }
+    return img;
+  }
+}
@@ -0,0 +1,121 @@
+package de.selbi.colorfetch.provider;
+
+import de.selbi.colorfetch.data.ColorFetchResult.RGB;
+
+/**
+ * The CIEDE2000 color difference, with which {@link ColorThiefAccuracyTest}
+ * compares the sampled colors with the full-quality ones.
+ */
+final class ColorDifference {
+  private ColorDifference() {
+  }
+
+  /**
+   * Convert the given sRGB color to CIELAB (D65 white point).
+   *
+   * @param color the color
+   * @return L* (0..100), a* and b*
+   */
+  static double[] toLab(RGB color) {
+    double r = linearize(color.getR());
+    double g = linearize(color.getG());
+    double b = linearize(color.getB());
+    double x = labF((0.4124564 * r + 0.3575761 * g + 0.1804375 * b) / 0.95047);
+    double y = labF(0.2126729 * r + 0.7151522 * g + 0.0721750 * b);
+    double z = labF((0.0193339 * r + 0.1191920 * g + 0.9503041 * b) / 1.08883);
+    return new double[] {116 * y - 16, 500 * (x - y), 200 * (y - z)};
+  }
+
+  /**
+   * Calculate the perceptual difference of two colors with the CIEDE2000
+   * formula. A difference below 1 is imperceptible, up to about 2 it's only
+   * noticeable on close inspection.
+   * See: https://hajim.rochester.edu/ece/sites/gsharma/ciede2000/
+   *
+   * @param color1 the first color
+   * @param color2 the second color
+   * @return the difference (0 for equal colors)
+   */
+  static double calculateDeltaE2000(RGB color1, RGB color2) {
+    return calculateDeltaE2000(toLab(color1), toLab(color2));
+  }
+
+  /**
+   * Calculate the perceptual difference of two CIELAB colors with the CIEDE2000 formula.
+   *
+   * @param lab1 L*, a* and b* of the first color
+   * @param lab2 L*, a* and b* of the second color
+   * @return the difference (0 for equal colors)
+   */
+  static double calculateDeltaE2000(double[] lab1, double[] lab2) {
+    double meanC = (Math.hypot(lab1[1], lab1[2]) + Math.hypot(lab2[1], lab2[2])) / 2;
+    double meanC7 = Math.pow(meanC, 7);
+    double g = 0.5 * (1 - Math.sqrt(meanC7 / (meanC7 + Math.pow(25, 7))));
+    double a1 = (1 + g) * lab1[1];
+    double a2 = (1 + g) * lab2[1];
+    double c1 = Math.hypot(a1, lab1[2]);
+    double c2 = Math.hypot(a2, lab2[2]);
+    double h1 = hueDegrees(a1, lab1[2]);
+    double h2 = hueDegrees(a2, lab2[2]);
+
+    double deltaL = lab2[0] - lab1[0];
+    double deltaC = c2 - c1;
+    double deltaHue = 0;
+    if (c1 * c2 != 0) {
+      deltaHue = h2 - h1;
+      if (deltaHue > 180) {
+        deltaHue -= 360;
+      } else if (deltaHue < -180) {
+        deltaHue += 360;
+      }
+    }
+    double deltaH = 2 * Math.sqrt(c1 * c2) * Math.sin(Math.toRadians(deltaHue / 2));
+
+    double meanL = (lab1[0] + lab2[0]) / 2;
+    double meanCPrime = (c1 + c2) / 2;
+    double meanH = h1 + h2;
+    if (c1 * c2 != 0) {
+      if (Math.abs(h1 - h2) <= 180) {
+        meanH /= 2;
+      } else {
+        meanH = meanH < 360 ? (meanH + 360) / 2 : (meanH - 360) / 2;
+      }
+    }
+    double t = 1
+        - 0.17 * Math.cos(Math.toRadians(meanH - 30))
+        + 0.24 * Math.cos(Math.toRadians(2 * meanH))
+        + 0.32 * Math.cos(Math.toRadians(3 * meanH + 6))
+        - 0.20 * Math.cos(Math.toRadians(4 * meanH - 63));
+    double meanL50 = (meanL - 50) * (meanL - 50);
+    double sL = 1 + 0.015 * meanL50 / Math.sqrt(20 + meanL50);
+    double sC = 1 + 0.045 * meanCPrime;
+    double sH = 1 + 0.015 * meanCPrime * t;
+    double meanCPrime7 = Math.pow(meanCPrime, 7);
+    double rotation = -2 * Math.sqrt(meanCPrime7 / (meanCPrime7 + Math.pow(25, 7)))
+        * Math.sin(Math.toRadians(60 * Math.exp(-Math.pow((meanH - 275) / 25, 2))));
+
+    double l = deltaL / sL;
+    double c = deltaC / sC;
+    double h = deltaH / sH;
+    return Math.sqrt(l * l + c * c + h * h + rotation * c * h);
+  }
+
+  //////////////////
+
+  private static double linearize(int channel) {
+    double c = channel / 255.0;
+    return c <= 0.04045 ? c / 12.92 : Math.pow((c + 0.055) / 1.055, 2.4);
+  }
+
+  private static double labF(double t) {
+    return t > 216.0 / 24389 ? Math.cbrt(t) : (24389.0 / 27 * t + 16) / 116;
+  }
+
+  private static double hueDegrees(double a, double b) {
+    if (a == 0 && b == 0) {
+      return 0;
+    }
+    double hue = Math.toDegrees(Math.atan2(b, a));
+    return hue < 0 ? hue + 360 : hue;
+  }
+}
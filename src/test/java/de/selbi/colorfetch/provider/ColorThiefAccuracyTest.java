@@ -0,0 +1,94 @@
+package de.selbi.colorfetch.provider;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import de.selbi.colorfetch.ColorFetchProperties;
+import de.selbi.colorfetch.benchmark.BenchmarkImages;
+import de.selbi.colorfetch.data.ColorFetchResult;
+
+/**
+ * Checks that the sampling of <code>color_thief</code> stays close to what it
+ * would find if it sampled every pixel. For every image of the corpus, both
+ * colors are compared with the CIEDE2000 difference, and the test fails if
+ * any of them differs by more than the allowed delta.
+ * <p>
+ * Images with near-tied colors can't be sampled reliably at all, as a few
+ * pixels more or less decide which one wins. Sampling every fifth pixel (the
+ * quality all images used to be sampled with) is therefore checked as well,
+ * and an image only fails if the configured sampling is further off than that.
+ * <p>
+ * The corpus consists of several variants of the synthetic benchmark images
+ * at sizes from thumbnails to the largest decoded size (except for
+ * <code>noise</code>, which has no dominant colors to begin with). Real-world
+ * images can be checked with <code>-PaccuracyImages=/path/to/cover.jpg,...</code>,
+ * and the allowed delta can be changed with <code>-PaccuracyMaxDeltaE=...</code>.
+ */
+class ColorThiefAccuracyTest {
+  private static final double MAX_DELTA_E = Double.parseDouble(System.getProperty("accuracyMaxDeltaE", "3.0"));
+  private static final String IMAGES = System.getProperty("accuracyImages", "");
+  private static final String[] SYNTHETIC_IMAGES = {"gradient", "shapes", "grayscale"};
+  private static final int FORMER_SAMPLE_QUALITY = 5;
+  private static final int[] SIZES = {64, 300, 640, 1024};
+  private static final int VARIANTS = 5;
+
+  private final ColorThiefColorProvider sampledProvider = createProvider(new ColorFetchProperties().getCompute().getColorThiefSampledPixels());
+  private final ColorThiefColorProvider fullQualityProvider = createProvider(Long.MAX_VALUE);
+
+  @ParameterizedTest(name = "{0} #{2} @{1}")
+  @MethodSource("corpus")
+  void sampledColorsStayCloseToFullQuality(String image, int size, int variant) throws IOException {
+    BufferedImage img = BenchmarkImages.create(image, size, variant);
+    long pixels = (long) img.getWidth() * img.getHeight();
+    ColorThiefColorProvider formerProvider = createProvider(Math.max(1, pixels / FORMER_SAMPLE_QUALITY));
+
+    ColorFetchResult fullQuality = fullQualityProvider.getColorFetchResultFromBufferedImage(img);
+    double deltaE = calculateDeltaE(sampledProvider.getColorFetchResultFromBufferedImage(img), fullQuality);
+    double formerDeltaE = calculateDeltaE(formerProvider.getColorFetchResultFromBufferedImage(img), fullQuality);
+    assertTrue(deltaE <= MAX_DELTA_E || deltaE <= formerDeltaE, () -> String.format(
+        "delta E %.3f to the full-quality colors (every %dth pixel: %.3f, allowed: %.3f)", deltaE, FORMER_SAMPLE_QUALITY, formerDeltaE, MAX_DELTA_E));
+  }
+
+  static List<Arguments> corpus() {
+    List<Arguments> corpus = new ArrayList<>();
+    if (!IMAGES.isBlank()) {
+      for (String image : IMAGES.split(",")) {
+        for (int size : SIZES) {
+          corpus.add(Arguments.of(image, size, 0));
+        }
+      }
+      return corpus;
+    }
+    for (String image : SYNTHETIC_IMAGES) {
+      for (int size : SIZES) {
+        // The gradient doesn't depend on the seed
+        for (int variant = 0; variant < (image.equals("gradient") ? 1 : VARIANTS); variant++) {
+          corpus.add(Arguments.of(image, size, variant));
+        }
+      }
+    }
+    return corpus;
+  }
+
+  //////////////////
+
+  private static ColorThiefColorProvider createProvider(long sampledPixels) {
+    ColorFetchProperties colorFetchProperties = new ColorFetchProperties();
+    colorFetchProperties.getCompute().setColorThiefSampledPixels(sampledPixels);
+    return new ColorThiefColorProvider(colorFetchProperties);
+  }
+
+  private static double calculateDeltaE(ColorFetchResult colorFetchResult, ColorFetchResult reference) {
+    return Math.max(
+        ColorDifference.calculateDeltaE2000(colorFetchResult.getPrimary(), reference.getPrimary()),
+        ColorDifference.calculateDeltaE2000(colorFetchResult.getSecondary(), reference.getSecondary()));
+  }
+}
@@ -0,0 +1,91 @@
+package de.selbi.colorfetch.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.awt.Color;
+
+import org.junit.jupiter.api.Test;
+
+import de.selbi.colorfetch.data.ColorFetchResult;
+
+/**
+ * Checks that the primitive color math of {@link ColorUtil} gives exactly
+ * the same results as the original implementations (based on
+ * {@link Color#RGBtoHSB(int, int, int, float[])} and {@link Math#pow(double, double)}),
+ * for every color of the 24-bit color space.
+ * <p>
+ * The channels also include 256, which is what the average of an empty
+ * median cut box comes out as, and which the lookup tables don't cover.
+ */
+class ColorUtilTest {
+  private static final int MAX_CHANNEL = 256;
+  private static final int MAX_REPORTED_MISMATCHES = 20;
+
+  @Test
+  void brightnessMatchesRgbToHsb() {
+    assertForEveryColor((r, g, b, mismatches) ->
+        mismatches.compare("calculateBrightness", r, g, b, Color.RGBtoHSB(r, g, b, null)[2], ColorUtil.calculateBrightness(r, g, b)));
+  }
+
+  @Test
+  void colorfulnessMatchesRgbToHsb() {
+    assertForEveryColor((r, g, b, mismatches) -> {
+      float saturation = Color.RGBtoHSB(r, g, b, null)[1];
+      mismatches.compare("calculateColorfulness", r, g, b, saturation, ColorUtil.calculateColorfulness(r, g, b));
+      if (isPackable(r, g, b)) {
+        mismatches.compare("calculatePackedColorfulness", r, g, b, saturation, ColorUtil.calculatePackedColorfulness(ColorUtil.packRgb(r, g, b)));
+      }
+    });
+  }
+
+  @Test
+  void perceivedBrightnessMatchesPow() {
+    assertForEveryColor((r, g, b, mismatches) -> {
+      double perceivedBrightness = Math.sqrt(0.299 * Math.pow(r, 2) + 0.587 * Math.pow(g, 2) + 0.114 * Math.pow(b, 2)) / 255;
+      mismatches.compare("calculatePerceivedBrightness", r, g, b, perceivedBrightness, ColorUtil.calculatePerceivedBrightness(r, g, b));
+      if (isPackable(r, g, b)) {
+        mismatches.compare("calculatePackedPerceivedBrightness", r, g, b, perceivedBrightness,
+            ColorUtil.calculatePackedPerceivedBrightness(ColorUtil.packRgb(r, g, b)));
+        mismatches.compare("calculatePerceivedBrightness(RGB)", r, g, b, perceivedBrightness,
+            ColorUtil.calculatePerceivedBrightness(ColorFetchResult.RGB.of(r, g, b)));
+      }
+    });
+  }
+
+  //////////////////
+
+  private static boolean isPackable(int r, int g, int b) {
+    return r < MAX_CHANNEL && g < MAX_CHANNEL && b < MAX_CHANNEL;
+  }
+
+  private static void assertForEveryColor(ColorCheck colorCheck) {
+    Mismatches mismatches = new Mismatches();
+    for (int r = 0; r <= MAX_CHANNEL; r++) {
+      for (int g = 0; g <= MAX_CHANNEL; g++) {
+        for (int b = 0; b <= MAX_CHANNEL; b++) {
+          colorCheck.check(r, g, b, mismatches);
+        }
+      }
+    }
+    assertEquals(0, mismatches.count, mismatches.report::toString);
+  }
+
+  @FunctionalInterface
+  private interface ColorCheck {
+    void check(int r, int g, int b, Mismatches mismatches);
+  }
+
+  private static final class Mismatches {
+    private final StringBuilder report = new StringBuilder();
+    private int count = 0;
+
+    private void compare(String method, int r, int g, int b, double expected, double actual) {
+      if (Double.compare(expected, actual) != 0) {
+        if (count < MAX_REPORTED_MISMATCHES) {
+          report.append(String.format("%s(%d, %d, %d): expected %s, got %s%n", method, r, g, b, expected, actual));
+        }
+        count++;
+      }
+    }
+  }
+}
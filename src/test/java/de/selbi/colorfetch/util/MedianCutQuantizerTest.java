@@ -0,0 +1,157 @@
+package de.selbi.colorfetch.util;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.awt.AlphaComposite;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import de.androidpit.colorthief.ColorThief;
+import de.androidpit.colorthief.MMCQ;
+import de.selbi.colorfetch.benchmark.BenchmarkImages;
+import de.selbi.colorfetch.util.MedianCutQuantizer.ColorBox;
+
+/**
+ * Checks that {@link MedianCutQuantizer} creates exactly the same color boxes
+ * (count, average color and order) as {@link ColorThief#getColorMap(BufferedImage, int, int, boolean)},
+ * which it replaced, both with and without the parallel histogram.
+ * <p>
+ * Besides the synthetic benchmark images in several image types, the corpus
+ * contains images with only a few colors, whose boxes are partly empty (the
+ * average is then the center of the box), and a large solid image, whose
+ * channel sums overflow and are clamped like ColorThief's {@code int} sums.
+ * <p>
+ * Images without any usable pixels are expected to give an empty list where
+ * ColorThief returns {@code null}. Translucent pixels are only checked for
+ * TYPE_4BYTE_ABGR, the only type for which ColorThief skipped them.
+ */
+class MedianCutQuantizerTest {
+  private static final String[] SYNTHETIC_IMAGES = {"gradient", "shapes", "noise", "grayscale"};
+  private static final int[] SIZES = {16, 64, 300, 1000};
+  private static final int VARIANTS = 3;
+  private static final int[] IMAGE_TYPES = {
+      BufferedImage.TYPE_3BYTE_BGR,
+      BufferedImage.TYPE_4BYTE_ABGR,
+      BufferedImage.TYPE_INT_RGB,
+      BufferedImage.TYPE_INT_ARGB,
+      BufferedImage.TYPE_BYTE_GRAY
+  };
+
+  private static final int COLOR_COUNT = 10;
+  private static final int QUALITY = 5;
+  private static final boolean IGNORE_WHITE = true;
+
+  private static final int CLAMPED_SIZE = 3000;
+
+  @ParameterizedTest(name = "{0} #{2} @{1}")
+  @MethodSource("syntheticCorpus")
+  void sameBoxesAsColorThief(String image, int size, int variant) throws IOException {
+    BufferedImage original = BenchmarkImages.create(image, size, variant);
+    for (int imageType : IMAGE_TYPES) {
+      assertSameBoxes("type " + imageType, convert(original, imageType, imageType == BufferedImage.TYPE_4BYTE_ABGR), QUALITY);
+    }
+  }
+
+  @ParameterizedTest(name = "{0} colors")
+  @ValueSource(ints = {1, 2, 3, 4})
+  void sameBoxesAsColorThiefWithEmptyBoxes(int colors) {
+    assertSameBoxes(colors + " colors", fewColors(colors), QUALITY);
+  }
+
+  @Test
+  void noBoxesWithoutUsablePixels() {
+    assertSameBoxes("white", solid(64, Color.WHITE), QUALITY);
+  }
+
+  @Test
+  void clampsOverflowingSumsLikeColorThief() {
+    assertSameBoxes("clamped sums", solid(CLAMPED_SIZE, new Color(250, 130, 10)), 1);
+  }
+
+  static List<Arguments> syntheticCorpus() {
+    List<Arguments> corpus = new ArrayList<>();
+    for (String image : SYNTHETIC_IMAGES) {
+      for (int size : SIZES) {
+        for (int variant = 0; variant < VARIANTS; variant++) {
+          corpus.add(Arguments.of(image, size, variant));
+        }
+      }
+    }
+    return corpus;
+  }
+
+  //////////////////
+
+  private static void assertSameBoxes(String name, BufferedImage img, int quality) {
+    MMCQ.CMap colorMap = ColorThief.getColorMap(img, COLOR_COUNT, quality, IGNORE_WHITE);
+    List<MMCQ.VBox> expected = colorMap != null ? new ArrayList<>(colorMap.vboxes) : new ArrayList<>();
+    for (boolean parallel : new boolean[] {false, true}) {
+      List<ColorBox> actual = MedianCutQuantizer.quantize(img, COLOR_COUNT, quality, IGNORE_WHITE, parallel);
+      String variant = name + (parallel ? " (parallel)" : "");
+      assertEquals(expected.size(), actual.size(), () -> variant + ": box count");
+      for (int i = 0; i < actual.size(); i++) {
+        MMCQ.VBox vBox = expected.get(i);
+        ColorBox colorBox = actual.get(i);
+        int[] expectedBox = {vBox.count(false), vBox.avg(false)[0], vBox.avg(false)[1], vBox.avg(false)[2]};
+        int[] actualBox = {colorBox.getCount(), colorBox.getRed(), colorBox.getGreen(), colorBox.getBlue()};
+        int box = i;
+        assertArrayEquals(expectedBox, actualBox, () -> variant + ": box " + box + " (count, red, green, blue)");
+      }
+    }
+  }
+
+  private static BufferedImage convert(BufferedImage original, int imageType, boolean translucent) {
+    BufferedImage img = new BufferedImage(original.getWidth(), original.getHeight(), imageType);
+    Graphics2D g = img.createGraphics();
+    try {
+      g.drawImage(original, 0, 0, null);
+      if (translucent) {
+        // A translucent corner, which both skip
+        g.setComposite(AlphaComposite.Src);
+        g.setColor(new Color(255, 0, 0, 100));
+        g.fillRect(0, 0, original.getWidth() / 3, original.getHeight() / 3);
+      }
+    } finally {
+      g.dispose();
+    }
+    return img;
+  }
+
+  private static BufferedImage fewColors(int colors) {
+    Color[] palette = {new Color(0xE63946), new Color(0x1D3557), new Color(0x2A9D8F), new Color(0x101010)};
+    BufferedImage img = new BufferedImage(60, 60, BufferedImage.TYPE_3BYTE_BGR);
+    Graphics2D g = img.createGraphics();
+    try {
+      for (int i = 0; i < colors; i++) {
+        g.setColor(palette[i]);
+        g.fillRect(i * 60 / colors, 0, 60, 60);
+      }
+    } finally {
+      g.dispose();
+    }
+    return img;
+  }
+
+  private static BufferedImage solid(int size, Color color) {
+    BufferedImage img = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+    Graphics2D g = img.createGraphics();
+    try {
+      g.setColor(color);
+      g.fillRect(0, 0, size, size);
+    } finally {
+      g.dispose();
+    }
+    return img;
+  }
+}